@@ -0,0 +1,97 @@
+package edu.cis.Controller;
+
+import edu.cis.Model.*;
+import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+
+/**
+ * Builds a chain of blocks straight into a node (skipping proof of work), where each block spends outputs of the
+ * previous block's coinbase. Outputs of the tip's coinbase are left unspent for the benchmarks.
+ */
+class ChainFixture {
+
+    private final Helper helper;
+    private final Node node;
+    private Block tip;
+    private KeyPair tipKey;
+    private Transaction tipCoinBase;
+    private int nextOutput;
+
+    ChainFixture(Node node, int height, int transactionsPerBlock, int outputsPerCoinBase) throws BlockChainException {
+        this.helper = Helper.getInstance();
+        this.node = node;
+        Hash256 prevHash = Hash256.ZERO;
+        for (int i = 0; i < height; i++) {
+            KeyPair key = helper.generateKeyPair();
+            String sinkAddr = helper.pubKeyToHexAddr(helper.generateKeyPair().getPublic());
+            Block block = new Block(prevHash);
+            Transaction coinBase = coinBase(key, outputsPerCoinBase);
+            block.addTransaction(coinBase);
+            for (int j = 0; tipCoinBase != null && j < transactionsPerBlock; j++) {
+                block.addTransaction(spend(tipCoinBase, j, tipKey, sinkAddr));
+            }
+            node.blockChain.addBlock(block);
+            prevHash = block.getHash();
+            tip = block;
+            tipKey = key;
+            tipCoinBase = coinBase;
+        }
+    }
+
+    Block getTip() {
+        return tip;
+    }
+
+    /**
+     * Returns a new transaction spending the next unused output of the tip's coinbase
+     */
+    Transaction nextSpend() {
+        String addr = helper.pubKeyToHexAddr(helper.generateKeyPair().getPublic());
+        return spend(tipCoinBase, nextOutput++, tipKey, addr);
+    }
+
+    /**
+     * Returns a valid block on top of the tip with the given number of spending transactions, with its proof of work
+     */
+    Block candidateBlock(int transactionCount) throws BlockChainException {
+        Block block = new Block(tip.getHash());
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(TxInput.coinBaseInput());
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        outputs.add(new TxOutput(Constants.miningReward, helper.pubKeyToHexAddr(helper.generateKeyPair().getPublic())));
+        block.addTransaction(new Transaction(inputs, outputs));
+        for (int i = 0; i < transactionCount; i++) {
+            block.addTransaction(nextSpend());
+        }
+        while (!helper.meetsDifficulty(block.getHash().getBytes(), Constants.miningDifficulty)) {
+            block.incrementNonce();
+        }
+        return block;
+    }
+
+    private Transaction coinBase(KeyPair key, int outputCount) {
+        String addr = helper.pubKeyToHexAddr(key.getPublic());
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(TxInput.coinBaseInput());
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < outputCount; i++) {
+            outputs.add(new TxOutput(i + 1, addr));
+        }
+        return new Transaction(inputs, outputs);
+    }
+
+    private Transaction spend(Transaction prevTransaction, int outputIndex, KeyPair owner, String addr) {
+        TxOutput prevOutput = prevTransaction.getOutputs().get(outputIndex);
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(new TxInput(prevTransaction.getHash(), outputIndex,
+                               helper.generateSig(owner.getPrivate(), prevOutput.getHash().toString()),
+                               owner.getPublic()));
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        outputs.add(new TxOutput(prevOutput.getAmount(), addr));
+        return new Transaction(inputs, outputs);
+    }
+}
@@ -0,0 +1,42 @@
+package edu.cis.Controller;
+
+import edu.cis.Model.Block;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures blocks mined per second, the hashes counter gives the hash rate. Each block is built on the current tip,
+ * so every solution is accepted and extends the chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MiningBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    private Miner miner;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Hashes {
+        public long hashes;
+    }
+
+    @Setup
+    public void setup() {
+        miner = new Miner(workers);
+        if (!miner.mineBlock(Block.genesis(miner))) {
+            throw new IllegalStateException("genesis block was not accepted");
+        }
+    }
+
+    @Benchmark
+    public boolean mineBlock(Hashes counter) {
+        boolean accepted = miner.mineBlock(miner.createBlock());
+        counter.hashes += miner.getHashCount();
+        return accepted;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.cis.Controller;
+
+import edu.cis.Model.Block;
+import edu.cis.Model.BlockChainException;
+import edu.cis.Model.BlockUndo;
+import edu.cis.Model.Transaction;
+import edu.cis.Model.UTXOSet;
+import edu.cis.Utils.SignatureCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeBenchmark {
+
+    private static final int transactionsPerBlock = 10;
+    private static final int blockSize = 50;
+
+    @Param({"10", "100"})
+    public int height;
+
+    @Param({"0", "100"})
+    public int poolSize;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Node node;
+    private Transaction transaction;
+    private Block block;
+    private Block tip;
+    private UTXOSet parentUTXO;
+
+    @Setup
+    public void setup() throws BlockChainException {
+        node = new Node();
+        // Empty cache, so every benchmark call pays for its signature checks
+        node.setSignatureCache(new SignatureCache(0));
+        node.setParallelValidation(parallel);
+        ChainFixture fixture = new ChainFixture(node, height, transactionsPerBlock,
+                                                poolSize + blockSize + transactionsPerBlock + 1);
+        for (int i = 0; i < poolSize; i++) {
+            node.mempool.add(fixture.nextSpend(), 0);
+        }
+        transaction = fixture.nextSpend();
+        block = fixture.candidateBlock(blockSize);
+        tip = fixture.getTip();
+        parentUTXO = node.trackUTXO(tip.getPrevHash());
+    }
+
+    @Benchmark
+    public boolean validateTransaction() {
+        return node.validateTransaction(transaction);
+    }
+
+    @Benchmark
+    public boolean validateBlock() {
+        return node.validateBlock(block);
+    }
+
+    // Derives the UTXO set of a block from its parent's, which should not depend on the height
+    @Benchmark
+    public UTXOSet connectBlock() throws BlockChainException {
+        return parentUTXO.connectBlock(tip, new BlockUndo());
+    }
+}
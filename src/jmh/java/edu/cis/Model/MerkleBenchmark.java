@@ -0,0 +1,53 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MerkleBenchmark {
+
+    @Param({"1", "16", "256", "2048"})
+    public int transactionCount;
+
+    private Block block;
+    private Hash256 lastTransactionHash;
+
+    @Setup
+    public void setup() throws BlockChainException {
+        Helper helper = Helper.getInstance();
+        String hexAddr = helper.pubKeyToHexAddr(helper.generateKeyPair().getPublic());
+        block = new Block(Hash256.ZERO);
+        for (int i = 0; i < transactionCount; i++) {
+            ArrayList<TxInput> inputs = new ArrayList<>();
+            inputs.add(TxInput.coinBaseInput());
+            ArrayList<TxOutput> outputs = new ArrayList<>();
+            outputs.add(new TxOutput(i + 1, hexAddr));
+            Transaction transaction = new Transaction(inputs, outputs);
+            block.addTransaction(transaction);
+            lastTransactionHash = transaction.getHash();
+        }
+    }
+
+    @Benchmark
+    public Hash256 rebuildMerkle() {
+        block.setMerkleRoot();
+        return block.getMerkleRoot();
+    }
+
+    @Benchmark
+    public Hash256 cachedMerkleRoot() {
+        return block.getMerkleRoot();
+    }
+
+    @Benchmark
+    public boolean merkleProof() throws BlockChainException {
+        MerkleProof proof = block.getMerkleProof(lastTransactionHash);
+        return Block.verifyMerkleProof(lastTransactionHash, proof, block.getMerkleRoot());
+    }
+}
@@ -0,0 +1,79 @@
+package edu.cis.Utils;
+
+import edu.cis.Model.Transaction;
+import edu.cis.Model.TxInput;
+import edu.cis.Model.TxOutput;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HelperBenchmark {
+
+    @Param({"jca", "bouncycastle"})
+    public String engine;
+
+    private Helper helper;
+    private byte[] data;
+    private Transaction transaction;
+    private KeyPair keyPair;
+    private String message;
+    private String signature;
+    private String hexAddr;
+    private String b58Addr;
+
+    @Setup
+    public void setup() throws HelperException {
+        helper = Helper.getInstance();
+        helper.setCryptoEngine(engine.equals("jca") ? new JcaCryptoEngine() : new BouncyCastleCryptoEngine());
+        data = new byte[256];
+        keyPair = helper.generateKeyPair();
+        hexAddr = helper.pubKeyToHexAddr(keyPair.getPublic());
+        b58Addr = helper.encodeFromHexAddr(hexAddr);
+
+        // Transaction with two inputs and two outputs
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            TxOutput prevOutput = new TxOutput(i + 1, hexAddr);
+            inputs.add(new TxInput(Hash256.wrap(helper.SHA256(new byte[]{(byte) i})), i,
+                                   helper.generateSig(keyPair.getPrivate(), prevOutput.getHash().toString()),
+                                   keyPair.getPublic()));
+            outputs.add(new TxOutput(i + 1, hexAddr));
+        }
+        transaction = new Transaction(inputs, outputs);
+
+        message = transaction.getOutputs().get(0).getHash().toString();
+        signature = helper.generateSig(keyPair.getPrivate(), message);
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        return helper.SHA256(data);
+    }
+
+    @Benchmark
+    public Hash256 getHash() {
+        // computeHash, since getHash would return the cached hash after the first call
+        return helper.computeHash(transaction);
+    }
+
+    @Benchmark
+    public boolean verifySig() {
+        return helper.verifySig(keyPair.getPublic(), message, signature);
+    }
+
+    @Benchmark
+    public String encodeFromHexAddr() {
+        return helper.encodeFromHexAddr(hexAddr);
+    }
+
+    @Benchmark
+    public String decodeToHexAddr() throws HelperException {
+        return helper.decodeToHexAddr(b58Addr);
+    }
+}
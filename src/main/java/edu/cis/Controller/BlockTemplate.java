@@ -0,0 +1,199 @@
+package edu.cis.Controller;
+
+import edu.cis.Model.*;
+import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Next block a miner works on: the pool transactions picked for it, in block order, and the fees they pay. The
+ * template is kept up to date as transactions enter the pool and as new tips connect, instead of being rebuilt from
+ * the whole pool every time a block is needed.
+ *
+ * Transactions are picked from the highest fee rate down while they fit. A transaction spending the output of a pool
+ * transaction waits until that parent has been picked, so parents always come before their children.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class BlockTemplate {
+
+    // Pool transactions which do not fit before refilling stops, so a full template is not compared with the whole pool
+    private static final int MAX_REFILL_MISSES = 64;
+
+    private final Mempool mempool;
+    private final int maxSize;
+
+    private Hash256 prevHash;
+    // Picked transactions in block order
+    private LinkedHashMap<Hash256, Mempool.Entry> selected;
+    // Pool transactions waiting for a pool parent to be picked, indexed by that parent
+    private HashMap<Hash256, ArrayList<Mempool.Entry>> waiting;
+    private int size;
+    private long totalFee;
+
+    /**
+     * Creates an empty template on top of the genesis block
+     *
+     * @param mempool the pool the transactions are picked from
+     * @param maxSize the maximum total size of the picked transactions in the wire format
+     */
+    public BlockTemplate(Mempool mempool, int maxSize) {
+        this.mempool = mempool;
+        this.maxSize = maxSize;
+        this.prevHash = Hash256.ZERO;
+        this.selected = new LinkedHashMap<>();
+        this.waiting = new HashMap<>();
+    }
+
+    public Hash256 getPrevHash() {
+        return prevHash;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getTotalFee() {
+        return totalFee;
+    }
+
+    public ArrayList<Transaction> getTransactions() {
+        ArrayList<Transaction> transactions = new ArrayList<>(selected.size());
+        for (Mempool.Entry entry : selected.values()) {
+            transactions.add(entry.getTransaction());
+        }
+        return transactions;
+    }
+
+    /**
+     * Picks a transaction which has just entered the pool, if it fits. Once the template is full, a new transaction
+     * is only picked if a later block frees space for it.
+     *
+     * @param transactionHash the hash of the transaction
+     */
+    public void addTransaction(Hash256 transactionHash) {
+        Mempool.Entry entry = mempool.getEntry(transactionHash);
+        if (entry != null && !selected.containsKey(transactionHash)) {
+            tryAdd(entry);
+        }
+    }
+
+    /**
+     * Moves the template on top of a new tip, after the pool has been updated for the tip's block. Only the
+     * transactions the block confirmed or conflicted with are dropped, transactions waiting for a parent the block
+     * confirmed are tried again, and any freed space is filled from the highest fee rate down.
+     *
+     * @param prevHash the hash of the new tip
+     * @param block the block which has just connected
+     * @param conflicts the pool transactions removed because they conflicted with the block
+     */
+    public void update(Hash256 prevHash, Block block, List<Transaction> conflicts) {
+        this.prevHash = prevHash;
+        boolean freed = false;
+        ArrayList<Mempool.Entry> unblocked = new ArrayList<>();
+        for (Transaction transaction : block.getAllTransactions()) {
+            freed |= drop(transaction.getHash());
+            ArrayList<Mempool.Entry> children = waiting.remove(transaction.getHash());
+            if (children != null) {
+                unblocked.addAll(children);
+            }
+        }
+        for (Transaction transaction : conflicts) {
+            freed |= drop(transaction.getHash());
+            // Children of a conflict were removed from the pool along with it
+            waiting.remove(transaction.getHash());
+        }
+        for (Mempool.Entry entry : unblocked) {
+            addTransaction(entry.getTransaction().getHash());
+        }
+        if (freed) {
+            refill();
+        }
+    }
+
+    /**
+     * Creates a block from the template, with a coinbase paying the mining reward plus the fees
+     *
+     * @param coinBaseAddress the address the coinbase pays to, which should be new for every block so no two
+     *                        coinbase transactions are the same
+     * @return the block, ready to be mined
+     * @throws BlockChainException when the reward and fees do not fit in an output, or a transaction cannot be added
+     * to the block
+     */
+    public Block createBlock(String coinBaseAddress) throws BlockChainException {
+        Block block = new Block(prevHash);
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(TxInput.coinBaseInput());
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        long amount = Constants.miningReward + totalFee;
+        if (amount > Integer.MAX_VALUE) {
+            throw new BlockChainException("blockTemplateCreate", "coinbase amount is too large");
+        }
+        outputs.add(new TxOutput((int) amount, coinBaseAddress));
+        block.addTransaction(new Transaction(inputs, outputs));
+        for (Mempool.Entry entry : selected.values()) {
+            block.addTransaction(entry.getTransaction());
+        }
+        return block;
+    }
+
+    // Fills free space from the highest fee rate down, until several transactions in a row have not fit
+    private void refill() {
+        int misses = 0;
+        for (Mempool.Entry entry : mempool.getEntriesByFeeRate()) {
+            if (misses >= MAX_REFILL_MISSES) {
+                return;
+            }
+            if (!selected.containsKey(entry.getTransaction().getHash()) && !tryAdd(entry)) {
+                misses++;
+            }
+        }
+    }
+
+    // Removes a transaction from the template, returns whether it was picked
+    private boolean drop(Hash256 transactionHash) {
+        Mempool.Entry entry = selected.remove(transactionHash);
+        if (entry == null) {
+            return false;
+        }
+        size -= entry.getSize();
+        totalFee -= entry.getFee();
+        return true;
+    }
+
+    // Picks a transaction, or has it wait for a pool parent, returns false when it does not fit
+    private boolean tryAdd(Mempool.Entry entry) {
+        Transaction transaction = entry.getTransaction();
+        for (TxInput input : transaction.getInputs()) {
+            Hash256 parentHash = input.getTxHash();
+            if (mempool.contains(parentHash) && !selected.containsKey(parentHash)) {
+                ArrayList<Mempool.Entry> siblings = waiting.computeIfAbsent(parentHash, hash -> new ArrayList<>());
+                if (!siblings.contains(entry)) {
+                    siblings.add(entry);
+                }
+                return true;
+            }
+        }
+        if (size + entry.getSize() > maxSize) {
+            return false;
+        }
+        selected.put(transaction.getHash(), entry);
+        size += entry.getSize();
+        totalFee += entry.getFee();
+        ArrayList<Mempool.Entry> children = waiting.remove(transaction.getHash());
+        if (children != null) {
+            for (Mempool.Entry child : children) {
+                if (mempool.getEntry(child.getTransaction().getHash()) == child
+                        && !selected.containsKey(child.getTransaction().getHash())) {
+                    tryAdd(child);
+                }
+            }
+        }
+        return true;
+    }
+}
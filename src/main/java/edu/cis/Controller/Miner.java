@@ -1,29 +1,273 @@
 package edu.cis.Controller;
 
 import edu.cis.Model.Block;
+import edu.cis.Model.BlockChainException;
+import edu.cis.Model.Transaction;
+import edu.cis.Utils.Constants;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Wallet that is also able to mine blocks. Mining is split across several worker threads, where each worker searches
+ * the full nonce range for its own set of timestamps, so no two workers ever hash the same header.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
 public class Miner extends Wallet {
 
+    // Number of hashes a worker computes between checks of the stop flag
+    private static final int hashesPerCheck = 4096;
+
+    private final int workerCount;
+    private final ExecutorService workers;
+    private final BlockTemplate blockTemplate;
+
+    private volatile boolean stopMining;
+    private final AtomicLong hashCount;
+    private volatile long miningStartTime;
+    private volatile long miningEndTime;
+
     public Miner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Miner(int workerCount) {
         super();
+        this.workerCount = workerCount;
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "miner-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hashCount = new AtomicLong();
+        this.blockTemplate = new BlockTemplate(mempool, Constants.maxBlockSize);
+    }
+
+    @Override
+    public boolean receiveTransaction(Transaction transaction) {
+        if (super.receiveTransaction(transaction)) {
+            blockTemplate.addTransaction(transaction.getHash());
+            return true;
+        }
+        return false;
     }
 
     @Override
     public boolean receiveBlock(Block block) {
         if (super.receiveBlock(block)) {
-
+            // A new tip makes the block currently being mined stale
+            stopMining();
             return true;
         }
         return false;
     }
 
-    public void mineBlock(Block block) {
+    public BlockTemplate getBlockTemplate() {
+        return blockTemplate;
+    }
+
+    /**
+     * Creates the next block to be mined from the block template, paying the reward and fees to a new address of
+     * this miner
+     *
+     * @return the block, ready to be passed to mineBlock
+     */
+    public Block createBlock() {
+        Block block = runOnNode(() -> {
+            try {
+                return blockTemplate.createBlock(generateAddress());
+            }
+            catch (BlockChainException e) {
+                // Pool transactions are unique, so they can always be added
+                throw new IllegalStateException(e);
+            }
+        });
+        if (block == null) {
+            throw new IllegalStateException("interrupted while creating a block");
+        }
+        return block;
+    }
+
+    /**
+     * Searches for a timestamp and nonce which make the block hash satisfy the mining difficulty, and sends the block
+     * to this node once a solution is found. Blocks until a solution is found or mining is stopped.
+     *
+     * @param block the block to be mined
+     * @return a boolean representing whether a solution was found and the block was accepted
+     */
+    public boolean mineBlock(Block block) {
+        byte[] header = block.getBytes();
+        long startTimestamp = block.getTimestamp();
+
+        stopMining = false;
+        hashCount.set(0);
+        miningStartTime = System.nanoTime();
+        miningEndTime = 0;
+
+        AtomicBoolean found = new AtomicBoolean(false);
+        long[] solution = new long[2];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            tasks.add(new MiningWorker(header, startTimestamp + i, found, solution));
+        }
+        try {
+            workers.invokeAll(tasks);
+        }
+        catch (InterruptedException e) {
+            stopMining = true;
+            Thread.currentThread().interrupt();
+        }
+        miningEndTime = System.nanoTime();
+
+        if (!found.get()) {
+            return false;
+        }
+        synchronized (solution) {
+            block.setProofOfWork(solution[0], (int) solution[1]);
+        }
+        return sendBlock(block);
+    }
+
+    /**
+     * Stops all mining workers, the current call to mineBlock will return without a solution
+     */
+    public void stopMining() {
+        stopMining = true;
+    }
 
+    /**
+     * Returns the hash rate of the current mining run, or of the last one if no block is being mined
+     *
+     * @return the number of hashes per second
+     */
+    public double getHashRate() {
+        long start = miningStartTime;
+        long end = miningEndTime == 0 ? System.nanoTime() : miningEndTime;
+        if (start == 0 || end <= start) {
+            return 0;
+        }
+        return hashCount.get() * 1e9 / (end - start);
+    }
+
+    public long getHashCount() {
+        return hashCount.get();
     }
 
     private boolean sendBlock(Block block) {
-        return super.receiveBlock(block);
+        Boolean accepted = runOnNode(() -> super.receiveBlock(block));
+        return accepted != null && accepted;
+    }
+
+    /**
+     * Runs a call on the thread handling the node's messages when the node is in a network, since the mining
+     * threads must not touch the chain, pool or template while a message is being handled
+     *
+     * @return the result of the call, or null if the thread was interrupted while waiting for it
+     */
+    private <T> T runOnNode(Supplier<T> call) {
+        Network network = getNetwork();
+        if (network == null) {
+            return call.get();
+        }
+        try {
+            return network.call(this, call);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    protected void blockConnected(Block block, ArrayList<Transaction> conflicts) {
+        try {
+            blockTemplate.update(blockChain.getCurrTail().getHash(), block, conflicts);
+        }
+        catch (BlockChainException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
+    /**
+     * Worker that hashes headers for the timestamps startTimestamp, startTimestamp + workerCount, ... The first 64
+     * bytes of the header (prevHash and merkleRoot) are exactly one SHA256 block, so the digest state after them is
+     * computed once and restored for every attempt, and only the timestamp and nonce bytes are rewritten.
+     */
+    private class MiningWorker implements Callable<Void> {
+
+        private final byte[] header;
+        private final long startTimestamp;
+        private final AtomicBoolean found;
+        private final long[] solution;
+
+        public MiningWorker(byte[] header, long startTimestamp, AtomicBoolean found, long[] solution) {
+            this.header = header.clone();
+            this.startTimestamp = startTimestamp;
+            this.found = found;
+            this.solution = solution;
+        }
+
+        @Override
+        public Void call() {
+            SHA256Digest prefixState = new SHA256Digest();
+            prefixState.update(header, 0, 64);
+            SHA256Digest digest = new SHA256Digest();
+            byte[] hash = new byte[32];
 
+            long timestamp = startTimestamp;
+            int nonce = 0;
+            writeLong(header, 64, timestamp);
+            while (true) {
+                for (int i = 0; i < hashesPerCheck; i++) {
+                    writeInt(header, 72, nonce);
+                    digest.reset(prefixState);
+                    digest.update(header, 64, Block.HEADER_SIZE - 64);
+                    digest.doFinal(hash, 0);
+                    digest.update(hash, 0, hash.length);
+                    digest.doFinal(hash, 0);
+                    if (helper.meetsDifficulty(hash, Constants.miningDifficulty)) {
+                        hashCount.addAndGet(i + 1);
+                        if (found.compareAndSet(false, true)) {
+                            synchronized (solution) {
+                                solution[0] = timestamp;
+                                solution[1] = nonce;
+                            }
+                            stopMining = true;
+                        }
+                        return null;
+                    }
+                    nonce++;
+                    if (nonce == 0) {
+                        // All nonce values tried for this timestamp, move on to the next timestamp of this worker
+                        timestamp += workerCount;
+                        writeLong(header, 64, timestamp);
+                    }
+                }
+                hashCount.addAndGet(hashesPerCheck);
+                if (stopMining) {
+                    return null;
+                }
+            }
+        }
+
+        private void writeLong(byte[] bytes, int offset, long value) {
+            for (int i = 7; i >= 0; i--) {
+                bytes[offset + i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+
+        private void writeInt(byte[] bytes, int offset, int value) {
+            for (int i = 3; i >= 0; i--) {
+                bytes[offset + i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
 }
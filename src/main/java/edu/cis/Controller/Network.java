@@ -1,4 +1,703 @@
 package edu.cis.Controller;
 
+import edu.cis.Model.*;
+import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-process network connecting nodes through links with a latency and a bandwidth. Every node has an inbox, and its
+ * messages are handled one at a time on a shared pool of worker threads, so a node never runs on two threads at once
+ * while thousands of nodes only need as many threads as there are cores.
+ *
+ * Blocks and transactions are relayed in three steps: a node which accepts an object announces its hash to all its
+ * peers (inv), a peer which has not seen the hash yet asks the first announcer for it (getdata), and the announcer
+ * sends the object. Each node keeps a bounded set of recently seen hashes, so an object is only transferred to and
+ * validated by each node once, however dense the network is. The peers which announce an object while it is being
+ * requested are remembered, and asked in turn when the request goes unanswered or the announcer no longer has the
+ * object (notfound).
+ *
+ * Blocks are sent as compact blocks, which the receiver rebuilds from its transaction pool. It then requests the
+ * transactions it is missing (getblocktxn), and falls back to requesting the full block when they do not arrive in
+ * time or the rebuilt block does not match its header.
+ *
+ * Each link sends one message at a time: a message waits for the messages queued before it, takes its size divided by
+ * the bandwidth to send, then arrives after the latency. Once a node has been added to the network it should only be
+ * given blocks and transactions through send, so it is not used from two threads at once. Work a node does on its own
+ * behalf, like a miner handing over a block it found, is run on the node's worker through call.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
 public class Network {
+
+    /**
+     * Direction of a connection between two nodes
+     */
+    private static class Link {
+
+        private final Peer target;
+        private final long latencyNanos;
+        // 0 when the link has no bandwidth limit
+        private final long bytesPerSecond;
+        // Time at which the link has finished sending the messages already queued on it
+        private long busyUntil;
+
+        public Link(Peer target, long latencyNanos, long bytesPerSecond) {
+            this.target = target;
+            this.latencyNanos = latencyNanos;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        // Reserves the link for a message, and returns the time at which the message arrives
+        public synchronized long schedule(int size, long now) {
+            long start = Math.max(now, busyUntil);
+            long transferNanos = bytesPerSecond == 0 ? 0 : size * 1_000_000_000L / bytesPerSecond;
+            busyUntil = start + transferNanos;
+            return busyUntil + latencyNanos;
+        }
+    }
+
+    /**
+     * A node along with its inbox, outgoing links and relay state. The relay state is only used while handling the
+     * node's messages, so it is never accessed from two threads at once.
+     */
+    private class Peer implements Runnable {
+
+        private final Node node;
+        private final ConcurrentLinkedQueue<Runnable> inbox;
+        // Whether a worker has been given this peer to drain its inbox
+        private final AtomicBoolean scheduled;
+        // Thread currently handling this peer's messages, null between runs
+        private volatile Thread handler;
+        private final ConcurrentHashMap<Peer, Link> links;
+        // Hashes recently announced to or by this node, the oldest are forgotten first
+        private final LinkedHashMap<Hash256, Boolean> seen;
+        // Objects recently announced by this node, kept to answer requests for them
+        private final LinkedHashMap<Hash256, Byteable> inventory;
+        private final LinkedHashMap<Hash256, CompactBlock> compactBlocks;
+        // Objects requested but not yet received, by hash
+        private final LinkedHashMap<Hash256, Request> requests;
+        // Blocks being rebuilt while their missing transactions are requested, by block hash
+        private final LinkedHashMap<Hash256, Transaction[]> partialBlocks;
+
+        public Peer(Node node) {
+            this.node = node;
+            this.inbox = new ConcurrentLinkedQueue<>();
+            this.scheduled = new AtomicBoolean();
+            this.links = new ConcurrentHashMap<>();
+            this.seen = new LinkedHashMap<Hash256, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Hash256, Boolean> eldest) {
+                    return size() > Constants.seenSetSize;
+                }
+            };
+            this.inventory = new LinkedHashMap<Hash256, Byteable>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Hash256, Byteable> eldest) {
+                    return size() > Constants.seenSetSize;
+                }
+            };
+            this.compactBlocks = new LinkedHashMap<Hash256, CompactBlock>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Hash256, CompactBlock> eldest) {
+                    return size() > Constants.seenSetSize;
+                }
+            };
+            this.requests = new LinkedHashMap<Hash256, Request>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Hash256, Request> eldest) {
+                    if (size() > Constants.seenSetSize) {
+                        cancelTimeout(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            this.partialBlocks = new LinkedHashMap<Hash256, Transaction[]>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Hash256, Transaction[]> eldest) {
+                    return size() > Constants.seenSetSize;
+                }
+            };
+        }
+
+        // Returns whether the hash had not been seen yet
+        public boolean markSeen(Hash256 hash) {
+            return seen.put(hash, Boolean.TRUE) == null;
+        }
+
+        // Called when a requested object arrives, so the request is not sent to another peer
+        public void received(Hash256 hash) {
+            Request request = requests.remove(hash);
+            if (request != null) {
+                cancelTimeout(request);
+            }
+        }
+
+        public void deliver(Runnable message) {
+            inbox.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            handler = Thread.currentThread();
+            try {
+                // Handle a bounded batch, then give the thread to other peers
+                for (int i = 0; i < MESSAGES_PER_RUN; i++) {
+                    Runnable message = inbox.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    try {
+                        message.run();
+                    }
+                    finally {
+                        messageDone();
+                    }
+                }
+            }
+            finally {
+                handler = null;
+                scheduled.set(false);
+                // A message may have arrived after the inbox looked empty
+                if (!inbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                    workers.execute(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * An object requested from one peer, along with the other peers which announced it while the request was pending,
+     * to be asked in turn if the request goes unanswered
+     */
+    private static class Request {
+
+        private final ArrayDeque<Peer> announcers;
+        private Peer current;
+        // Whether a block is requested in full rather than as a compact block
+        private boolean full;
+        private ScheduledFuture<?> timeout;
+
+        public Request(Peer current) {
+            this.announcers = new ArrayDeque<>();
+            this.current = current;
+        }
+    }
+
+    /**
+     * Times at which a block or transaction was first sent, and last accepted by a node
+     */
+    private static class Propagation {
+
+        private final long startTime;
+        private final AtomicInteger acceptCount;
+        private volatile long lastAcceptTime;
+
+        public Propagation(long startTime) {
+            this.startTime = startTime;
+            this.acceptCount = new AtomicInteger();
+        }
+    }
+
+    private static final int MESSAGES_PER_RUN = 64;
+    // Size of an inv or getdata message: version, message type, object type and hash
+    private static final int INVENTORY_MESSAGE_SIZE = 3 + Hash256.SIZE;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentHashMap<Node, Peer> peers;
+    private final ConcurrentHashMap<Hash256, Propagation> propagations;
+
+    // Messages sent but not yet handled, used to wait until the network is idle
+    private final AtomicLong pendingMessages;
+    private final Object idleLock;
+    private final AtomicLong messageCount;
+    private final AtomicLong objectCount;
+    private final AtomicLong byteCount;
+
+    public Network() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a network without nodes
+     *
+     * @param threadCount the number of worker threads handling the messages of all nodes
+     */
+    public Network(int threadCount) {
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "network-worker");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.workers = Executors.newFixedThreadPool(threadCount, threadFactory);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+        // Request timeouts are mostly cancelled, and should not stay queued until they would have fired
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+        this.peers = new ConcurrentHashMap<>();
+        this.propagations = new ConcurrentHashMap<>();
+        this.pendingMessages = new AtomicLong();
+        this.idleLock = new Object();
+        this.messageCount = new AtomicLong();
+        this.objectCount = new AtomicLong();
+        this.byteCount = new AtomicLong();
+    }
+
+    public synchronized void addNode(Node... nodes) {
+        for (Node node : nodes) {
+            if (!peers.containsKey(node)) {
+                peers.put(node, new Peer(node));
+                node.setNetwork(this);
+            }
+        }
+    }
+
+    public int size() {
+        return peers.size();
+    }
+
+    public void connect(Node first, Node second) {
+        connect(first, second, 0, 0);
+    }
+
+    /**
+     * Connects two nodes in both directions, adding them to the network if needed
+     *
+     * @param first the first node
+     * @param second the second node
+     * @param latencyMillis the time a message takes to arrive once it has been sent, in milliseconds
+     * @param bytesPerSecond the bandwidth of each direction, or 0 for no limit
+     */
+    public synchronized void connect(Node first, Node second, long latencyMillis, long bytesPerSecond) {
+        addNode(first, second);
+        Peer firstPeer = peers.get(first);
+        Peer secondPeer = peers.get(second);
+        long latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        firstPeer.links.put(secondPeer, new Link(secondPeer, latencyNanos, bytesPerSecond));
+        secondPeer.links.put(firstPeer, new Link(firstPeer, latencyNanos, bytesPerSecond));
+    }
+
+    /**
+     * Gives a transaction to a node, ie. from a wallet outside the network. The node relays it once accepted.
+     *
+     * @param node the node receiving the transaction
+     * @param transaction the transaction
+     */
+    public void send(Node node, Transaction transaction) {
+        propagations.putIfAbsent(transaction.getHash(), new Propagation(System.nanoTime()));
+        enqueue(getPeer(node), () -> receive(node, transaction));
+    }
+
+    /**
+     * Gives a block to a node, ie. one found by a miner outside the network. The node relays it once accepted.
+     *
+     * @param node the node receiving the block
+     * @param block the block
+     */
+    public void send(Node node, Block block) {
+        propagations.putIfAbsent(block.getHash(), new Propagation(System.nanoTime()));
+        enqueue(getPeer(node), () -> receive(node, block));
+    }
+
+    /**
+     * Blocks until every message sent so far, and every message sent while handling them, has been handled
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return a boolean representing whether the network became idle before the timeout
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (pendingMessages.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of nodes which have accepted a block or transaction sent into the network
+     *
+     * @param hash the hash of the block or transaction
+     * @return the number of nodes, 0 if it was never sent
+     */
+    public int getAcceptCount(Hash256 hash) {
+        Propagation propagation = propagations.get(hash);
+        return propagation == null ? 0 : propagation.acceptCount.get();
+    }
+
+    /**
+     * Returns the time between a block or transaction being sent into the network and the last node accepting it
+     *
+     * @param hash the hash of the block or transaction
+     * @return the propagation time in nanoseconds, or -1 if no node has accepted it
+     */
+    public long getPropagationNanos(Hash256 hash) {
+        Propagation propagation = propagations.get(hash);
+        if (propagation == null || propagation.acceptCount.get() == 0) {
+            return -1;
+        }
+        return propagation.lastAcceptTime - propagation.startTime;
+    }
+
+    /**
+     * Returns the number of messages sent between nodes, including announcements and requests
+     *
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Returns the number of blocks and transactions sent between nodes
+     *
+     * @return the number of objects
+     */
+    public long getObjectCount() {
+        return objectCount.get();
+    }
+
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * Stops the worker threads, messages still queued are dropped
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Runs a call on the worker handling a node's messages and waits for its result, so the call never touches the
+     * node while a message is being handled. A call made while handling one of the node's messages, or after the
+     * network has been shut down, runs directly.
+     *
+     * @param node the node the call works on
+     * @param call the call
+     * @return the result of the call
+     * @throws InterruptedException when the waiting thread is interrupted, the call may still run afterwards
+     */
+    <T> T call(Node node, Supplier<T> call) throws InterruptedException {
+        Peer peer = getPeer(node);
+        if (peer.handler == Thread.currentThread() || workers.isShutdown()) {
+            return call.get();
+        }
+        FutureTask<T> task = new FutureTask<>(call::get);
+        enqueue(peer, task);
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Announces a transaction accepted by a node to all of the node's peers
+     */
+    void relay(Node node, Transaction transaction) {
+        announce(getPeer(node), transaction.getHash(), transaction);
+    }
+
+    /**
+     * Announces a block accepted by a node to all of the node's peers, and prepares its compact form
+     *
+     * @param prefill hashes of the transactions to be sent in full in the compact block
+     */
+    void relay(Node node, Block block, Set<Hash256> prefill) {
+        // Counted here rather than on receipt, since orphans are accepted once their parent connects
+        accepted(block.getHash());
+        Peer peer = getPeer(node);
+        peer.compactBlocks.put(block.getHash(),
+                               CompactBlock.fromBlock(block, ThreadLocalRandom.current().nextLong(), prefill));
+        announce(peer, block.getHash(), block);
+    }
+
+    private void announce(Peer peer, Hash256 hash, Byteable object) {
+        peer.markSeen(hash);
+        peer.inventory.put(hash, object);
+        for (Link link : peer.links.values()) {
+            Peer target = link.target;
+            send(link, INVENTORY_MESSAGE_SIZE, () -> handleInventory(target, peer, hash));
+        }
+    }
+
+    // Requests an announced object, unless it has already been seen. While a request is pending, later announcers are
+    // remembered so the object can be requested from them instead.
+    private void handleInventory(Peer peer, Peer announcer, Hash256 hash) {
+        if (peer.markSeen(hash)) {
+            Request request = new Request(announcer);
+            peer.requests.put(hash, request);
+            sendGetData(peer, hash, request);
+            return;
+        }
+        Request request = peer.requests.get(hash);
+        if (request != null && request.current != announcer && !request.announcers.contains(announcer)) {
+            request.announcers.add(announcer);
+        }
+    }
+
+    private void sendGetData(Peer peer, Hash256 hash, Request request) {
+        Peer announcer = request.current;
+        boolean full = request.full;
+        Link link = peer.links.get(announcer);
+        send(link, INVENTORY_MESSAGE_SIZE, () -> handleGetData(announcer, peer, hash, full));
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Constants.requestTimeoutMillis) + 2 * link.latencyNanos;
+        try {
+            request.timeout = scheduler.schedule(() -> enqueue(peer, () -> handleRequestTimeout(peer, hash, request)),
+                                                 timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException ignored) {
+            // The network has been shut down
+        }
+    }
+
+    // Asks the next announcer, if the request is still pending. Without another announcer, a block whose missing
+    // transactions never arrived is requested in full, otherwise the reply may still come.
+    private void handleRequestTimeout(Peer peer, Hash256 hash, Request request) {
+        if (peer.requests.get(hash) != request) {
+            return;
+        }
+        boolean partial = peer.partialBlocks.remove(hash) != null;
+        if (!request.announcers.isEmpty()) {
+            requestFromNext(peer, hash, request);
+        }
+        else if (partial) {
+            requestFullBlock(peer, request.current, hash);
+        }
+    }
+
+    // Requests a block in full from the peer which sent its compact form
+    private void requestFullBlock(Peer peer, Peer sender, Hash256 hash) {
+        Request request = peer.requests.get(hash);
+        if (request == null) {
+            request = new Request(sender);
+            peer.requests.put(hash, request);
+        }
+        cancelTimeout(request);
+        request.current = sender;
+        request.full = true;
+        sendGetData(peer, hash, request);
+    }
+
+    // The announcer no longer has the object, so the next announcer is asked
+    private void handleNotFound(Peer peer, Peer announcer, Hash256 hash) {
+        Request request = peer.requests.get(hash);
+        if (request == null || request.current != announcer) {
+            return;
+        }
+        if (request.announcers.isEmpty()) {
+            // Nobody else has offered the object, so a later announcement requests it again
+            peer.received(hash);
+            peer.seen.remove(hash);
+            return;
+        }
+        requestFromNext(peer, hash, request);
+    }
+
+    private void requestFromNext(Peer peer, Hash256 hash, Request request) {
+        cancelTimeout(request);
+        request.current = request.announcers.poll();
+        sendGetData(peer, hash, request);
+    }
+
+    private static void cancelTimeout(Request request) {
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+    }
+
+    private void handleGetData(Peer peer, Peer requester, Hash256 hash, boolean full) {
+        Byteable object = peer.inventory.get(hash);
+        Link link = peer.links.get(requester);
+        CompactBlock compactBlock = peer.compactBlocks.get(hash);
+        if (object instanceof Block && compactBlock != null && !full) {
+            objectCount.incrementAndGet();
+            send(link, compactBlock.getSize(), () -> handleCompactBlock(requester, peer, compactBlock));
+        }
+        else if (object instanceof Block) {
+            sendBlock(peer, requester, (Block) object);
+        }
+        else if (object instanceof Transaction) {
+            Transaction transaction = (Transaction) object;
+            objectCount.incrementAndGet();
+            send(link, 2 + WireFormat.getTransactionSize(transaction), () -> {
+                requester.received(hash);
+                receive(requester.node, transaction);
+            });
+        }
+        else {
+            // The object has been forgotten since it was announced
+            send(link, INVENTORY_MESSAGE_SIZE, () -> handleNotFound(requester, peer, hash));
+        }
+    }
+
+    // The request stays pending until the block has been rebuilt, so a missing reply to getblocktxn times out
+    private void handleCompactBlock(Peer peer, Peer sender, CompactBlock compactBlock) {
+        if (!peer.requests.containsKey(compactBlock.getBlockHash())) {
+            // A late reply to a request which has since been answered by another peer
+            return;
+        }
+        Transaction[] transactions = compactBlock.match(peer.node.getMempool());
+        ArrayList<Integer> missing = CompactBlock.getMissing(transactions);
+        if (missing.isEmpty()) {
+            rebuildBlock(peer, sender, compactBlock, transactions);
+            return;
+        }
+        peer.partialBlocks.put(compactBlock.getBlockHash(), transactions);
+        int size = INVENTORY_MESSAGE_SIZE + WireFormat.getVarIntSize(missing.size());
+        for (int position : missing) {
+            size += WireFormat.getVarIntSize(position);
+        }
+        send(peer.links.get(sender), size, () -> handleGetBlockTransactions(sender, peer, compactBlock, missing));
+    }
+
+    private void handleGetBlockTransactions(Peer peer, Peer requester, CompactBlock compactBlock,
+                                            ArrayList<Integer> positions) {
+        Byteable object = peer.inventory.get(compactBlock.getBlockHash());
+        if (!(object instanceof Block)) {
+            return;
+        }
+        ArrayList<Transaction> blockTransactions = ((Block) object).getAllTransactions();
+        ArrayList<Transaction> transactions = new ArrayList<>(positions.size());
+        int size = INVENTORY_MESSAGE_SIZE + WireFormat.getVarIntSize(positions.size());
+        for (int position : positions) {
+            transactions.add(blockTransactions.get(position));
+            size += WireFormat.getTransactionSize(blockTransactions.get(position));
+        }
+        send(peer.links.get(requester), size,
+             () -> handleBlockTransactions(requester, peer, compactBlock, positions, transactions));
+    }
+
+    private void handleBlockTransactions(Peer peer, Peer sender, CompactBlock compactBlock,
+                                         ArrayList<Integer> positions, ArrayList<Transaction> transactions) {
+        Transaction[] blockTransactions = peer.partialBlocks.remove(compactBlock.getBlockHash());
+        if (blockTransactions == null) {
+            return;
+        }
+        for (int i = 0; i < positions.size(); i++) {
+            blockTransactions[positions.get(i)] = transactions.get(i);
+        }
+        rebuildBlock(peer, sender, compactBlock, blockTransactions);
+    }
+
+    private void rebuildBlock(Peer peer, Peer sender, CompactBlock compactBlock, Transaction[] transactions) {
+        Block block;
+        try {
+            block = compactBlock.toBlock(transactions);
+        }
+        catch (BlockChainException e) {
+            // A short id matched the wrong pool transaction, so the block is requested in full
+            requestFullBlock(peer, sender, compactBlock.getBlockHash());
+            return;
+        }
+        peer.received(block.getHash());
+        receive(peer.node, block);
+    }
+
+    private void sendBlock(Peer peer, Peer requester, Block block) {
+        objectCount.incrementAndGet();
+        send(peer.links.get(requester), 2 + WireFormat.getBlockSize(block), () -> {
+            requester.received(block.getHash());
+            receive(requester.node, block);
+        });
+    }
+
+    private void receive(Node node, Transaction transaction) {
+        if (node.receiveTransaction(transaction)) {
+            accepted(transaction.getHash());
+        }
+    }
+
+    private void receive(Node node, Block block) {
+        node.receiveBlock(block);
+    }
+
+    private void accepted(Hash256 hash) {
+        Propagation propagation = propagations.get(hash);
+        if (propagation != null) {
+            propagation.lastAcceptTime = System.nanoTime();
+            propagation.acceptCount.incrementAndGet();
+        }
+    }
+
+    private void send(Link link, int size, Runnable message) {
+        messageCount.incrementAndGet();
+        byteCount.addAndGet(size);
+        long now = System.nanoTime();
+        long delay = link.schedule(size, now) - now;
+        if (delay <= 0) {
+            enqueue(link.target, message);
+            return;
+        }
+        pendingMessages.incrementAndGet();
+        try {
+            scheduler.schedule(() -> {
+                enqueue(link.target, message);
+                messageDone();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            // The network has been shut down
+            messageDone();
+        }
+    }
+
+    private void enqueue(Peer peer, Runnable message) {
+        pendingMessages.incrementAndGet();
+        try {
+            peer.deliver(message);
+        }
+        catch (RejectedExecutionException e) {
+            messageDone();
+        }
+    }
+
+    private void messageDone() {
+        if (pendingMessages.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    private Peer getPeer(Node node) {
+        Peer peer = peers.get(node);
+        if (peer == null) {
+            throw new IllegalArgumentException("node is not in the network");
+        }
+        return peer;
+    }
 }
@@ -1,199 +1,574 @@
 package edu.cis.Controller;
 
-import com.sun.org.apache.xerces.internal.util.TeeXMLDocumentFilterImpl;
 import edu.cis.Model.*;
 import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
 import edu.cis.Utils.Helper;
+import edu.cis.Utils.SignatureCache;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class Node {
 
+    private static final String UTXO_SNAPSHOT_FILE = "utxo.dat";
+
+    // Pool shared by all nodes for verifying signatures in parallel
+    private static final ForkJoinPool validationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     protected Helper helper;
 
     protected BlockChain blockChain;
-    protected ArrayList<Transaction> transactionPool;
+    protected Mempool mempool;
+    // Blocks which arrived before their parent
+    private OrphanPool orphanPool;
+    // Orphans whose parent has connected, drained by the outermost receiveBlock so orphan chains do not recurse
+    private ArrayDeque<Block> connectableOrphans;
+    private boolean connectingOrphans;
 
-    private ArrayList<Node> neighbours;
-    private HashMap<String, ArrayList<TxOutput>> utxoStorage;
-    private int nextUpdateUTXO;
+    // Null until the node is added to a network, blocks and transactions are only relayed through a network
+    private volatile Network network;
+    // UTXO set of the current tail utxoTip (Hash256.ZERO before genesis), the sets of other blocks are derived from it
+    private volatile UTXOSet utxoSet;
+    private volatile Hash256 utxoTip;
+    // Sets of recently used blocks, which share all unchanged parts with each other
+    private Map<Hash256, UTXOSet> utxoViews;
+    private ConcurrentHashMap<Hash256, BlockUndo> blockUndos;
+    // Null when the node has no block store to keep snapshots next to
+    private File snapshotFile;
+    private int snapshotInterval;
+    private int pruneDepth;
+    private boolean parallelValidation;
+    private SignatureCache signatureCache;
 
     public Node() {
+        this(new BlockChain());
+    }
+
+    /**
+     * Creates a node whose blocks are kept in a block store, starting from the blocks already stored. The UTXO set is
+     * loaded from the latest snapshot in the store's directory, so only the blocks after it have to be connected.
+     *
+     * @param blockStore the store holding the blocks of this node
+     * @throws BlockChainException when a stored block or the snapshot cannot be read
+     */
+    public Node(BlockStore blockStore) throws BlockChainException {
+        this(new BlockChain(blockStore));
+        this.snapshotFile = new File(blockStore.getDirectory(), UTXO_SNAPSHOT_FILE);
+        UTXOSnapshot snapshot = UTXOSnapshot.load(snapshotFile);
+        if (snapshot != null && blockChain.contains(snapshot.getBlockHash())) {
+            this.utxoSet = snapshot.getUTXOSet();
+            this.utxoTip = snapshot.getBlockHash();
+        }
+    }
+
+    private Node(BlockChain blockChain) {
         this.helper = Helper.getInstance();
-        this.neighbours = new ArrayList<>();
-        this.blockChain = new BlockChain();
-        this.transactionPool = new ArrayList<>();
-        this.utxoStorage = new HashMap<>();
-        this.nextUpdateUTXO = 0;
+        this.blockChain = blockChain;
+        this.mempool = new Mempool();
+        this.orphanPool = new OrphanPool(Constants.orphanPoolSize, Constants.orphanExpiryMillis);
+        this.connectableOrphans = new ArrayDeque<>();
+        this.utxoSet = new UTXOSet();
+        this.utxoTip = Hash256.ZERO;
+        this.utxoViews = Collections.synchronizedMap(new LinkedHashMap<Hash256, UTXOSet>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Hash256, UTXOSet> eldest) {
+                return size() > Constants.utxoViewCacheSize;
+            }
+        });
+        this.blockUndos = new ConcurrentHashMap<>();
+        this.snapshotInterval = Constants.utxoSnapshotInterval;
+        this.pruneDepth = Constants.pruneDepth;
+        this.parallelValidation = Constants.parallelValidation;
+        this.signatureCache = new SignatureCache(Constants.signatureCacheSize);
+    }
+
+    /**
+     * Enables or disables verifying the input signatures of a block or transaction on all cores
+     *
+     * @param parallelValidation whether signatures should be verified in parallel
+     */
+    public void setParallelValidation(boolean parallelValidation) {
+        this.parallelValidation = parallelValidation;
     }
 
-    public void addNeighbour(Node... newNeighbours) {
-        neighbours.addAll(Arrays.asList(newNeighbours));
+    /**
+     * Returns the cache of inputs whose signatures have already been verified, which is shared between transaction
+     * pool admission and block validation
+     *
+     * @return the signature cache of this node
+     */
+    public SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    public void setSignatureCache(SignatureCache signatureCache) {
+        this.signatureCache = signatureCache;
+    }
+
+    /**
+     * Sets how often the UTXO set is saved, a snapshot is taken whenever the main chain reaches a multiple of the
+     * interval. Only used when the node has a block store.
+     *
+     * @param snapshotInterval the number of blocks between snapshots, or 0 to only save through saveSnapshot
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Enables pruning, which drops the transactions of main chain blocks buried deeper than a depth, along with their
+     * undo records. Reorganisations deeper than the depth are then rejected.
+     *
+     * @param pruneDepth the number of most recent blocks whose transactions are kept, or 0 to keep every block
+     */
+    public void setPruneDepth(int pruneDepth) {
+        this.pruneDepth = pruneDepth;
+    }
+
+    /**
+     * Saves the UTXO set as of the current tail next to the block store, ie. before shutting down
+     *
+     * @throws BlockChainException when the node has no block store or the snapshot cannot be written
+     */
+    public void saveSnapshot() throws BlockChainException {
+        if (snapshotFile == null) {
+            throw new BlockChainException("utxoSnapshotSave", "node has no block store");
+        }
+        Hash256 tailHash = blockChain.getCurrTail().getHash();
+        new UTXOSnapshot(tailHash, trackUTXO(tailHash)).save(snapshotFile);
     }
 
+    void setNetwork(Network network) {
+        this.network = network;
+    }
+
+    Network getNetwork() {
+        return network;
+    }
+
+    public Mempool getMempool() {
+        return mempool;
+    }
+
+    public OrphanPool getOrphanPool() {
+        return orphanPool;
+    }
+
+    /**
+     * Validates a transaction and adds it to the pool. Once the node is in a network, only the network may call this,
+     * transactions are given to the node through Network.send.
+     *
+     * @param transaction the transaction
+     * @return a boolean representing whether the transaction was accepted
+     */
     public boolean receiveTransaction(Transaction transaction) {
-        if (transactionPool.contains(transaction)) {
+        if (mempool.contains(transaction.getHash())) {
             return false;
         }
-        if (validateTransaction(transaction)) {
-            transactionPool.add(transaction);
-            for (Node neighbour : neighbours) {
-                neighbour.receiveTransaction(transaction);
-            }
-            return true;
+        long fee = getPoolFee(transaction);
+        if (fee < 0) {
+            return false;
         }
-        return false;
+        try {
+            mempool.add(transaction, fee);
+        }
+        catch (BlockChainException e) {
+            throw new IllegalStateException(e);
+        }
+        if (network != null) {
+            network.relay(this, transaction);
+        }
+        return true;
     }
 
+    /**
+     * Validates a block and adds it to the chain, or keeps it until its parent arrives. Once the node is in a network,
+     * only the network may call this, blocks are given to the node through Network.send.
+     *
+     * @param block the block
+     * @return a boolean representing whether the block was added to the chain
+     */
     public boolean receiveBlock(Block block) {
         // Make sure block does not already exist in the blockchain
-        try {
-            blockChain.getBlock(helper.getHash(block));
+        if (blockChain.contains(block.getHash())) {
+            return false;
+        }
+        // Only the first block may have no parent, a later one would never be added to the chain
+        if (block.getPrevHash().equals(Hash256.ZERO) && !blockChain.isEmpty()) {
+            return false;
+        }
+        // Keep a block whose parent has not arrived yet, it is connected as soon as the parent is
+        if (!block.getPrevHash().equals(Hash256.ZERO) && !blockChain.contains(block.getPrevHash())) {
+            // Only the proof of work can be checked without the parent, which keeps the pool expensive to fill
+            if (helper.meetsDifficulty(block.getHash().getBytes(), Constants.miningDifficulty)) {
+                orphanPool.add(block);
+            }
             return false;
         }
-        catch (BlockChainException ignored) { }
-        // Validate block, then add to blockchain, then pass on to neighbouring nodes
+        // Validate block, then add to blockchain, then pass on to the nodes connected in the network
         if (validateBlock(block)) {
             try {
                 blockChain.addBlock(block);
             }
             catch (BlockChainException e) {
-                // Prev hash does not exist
+                // Prev hash does not exist, and the set validation cached for the block will never be used
+                blockUndos.remove(block.getHash());
+                utxoViews.remove(block.getHash());
                 return false;
             }
-            transactionPool.removeAll(block.getAllTransactions());
-            for (Node neighbour : neighbours) {
-                neighbour.receiveBlock(block);
+            // Transactions this node had not seen are probably missing from its peers' pools as well
+            HashSet<Hash256> unknownTransactions = new HashSet<>();
+            for (Transaction transaction : block.getAllTransactions()) {
+                if (!mempool.contains(transaction.getHash())) {
+                    unknownTransactions.add(transaction.getHash());
+                }
             }
+            ArrayList<Transaction> conflicts = mempool.removeForBlock(block);
+            blockConnected(block, conflicts);
+            // A block on a side chain leaves the tail, and so the latest snapshot, unchanged
+            boolean tailChanged;
+            try {
+                Hash256 tailHash = blockChain.getCurrTail().getHash();
+                tailChanged = !tailHash.equals(utxoTip);
+                UTXOSet tailUTXO = trackUTXO(tailHash);
+                utxoSet = tailUTXO;
+                utxoTip = tailHash;
+                if (pruneDepth > 0) {
+                    // The tail's set already includes the pruned blocks, so they are only needed for reorgs
+                    for (Hash256 prunedHash : blockChain.pruneBlocks(blockChain.size() - pruneDepth)) {
+                        blockUndos.remove(prunedHash);
+                        utxoViews.remove(prunedHash);
+                    }
+                }
+            }
+            catch (BlockChainException e) {
+                throw new IllegalStateException(e);
+            }
+            if (snapshotFile != null && tailChanged && snapshotInterval > 0
+                    && blockChain.size() % snapshotInterval == 0) {
+                try {
+                    saveSnapshot();
+                }
+                catch (BlockChainException ignored) {
+                    // The previous snapshot is left in place, startup just has more blocks to connect
+                }
+            }
+            if (network != null) {
+                network.relay(this, block, unknownTransactions);
+            }
+            connectOrphans(block.getHash());
             return true;
         }
+        // Orphans building on an invalid block can never connect
+        orphanPool.removeDescendants(block.getHash());
         return false;
     }
 
-    private boolean validateTransaction(Transaction transaction) {
-        try {
-            // Input and outputs must not be empty
-            if (transaction.getInputs().isEmpty() || transaction.getOutputs().isEmpty()) {
-                return false;
-            }
+    /**
+     * Called once a block has been added to the chain and its transactions, and the pool transactions conflicting
+     * with it, have been removed from the pool
+     *
+     * @param block the connected block
+     * @param conflicts the pool transactions removed because they conflicted with the block
+     */
+    protected void blockConnected(Block block, ArrayList<Transaction> conflicts) {
+    }
 
-            // Sum of outputs must be larger than 0
-            long totalOutputAmount = transaction.getTotalAmount();
-            if (totalOutputAmount == 0) {
-                return false;
+    /**
+     * Connects the orphans waiting for a block which has just connected, along with the orphans waiting for those.
+     * Each orphan goes through receiveBlock, so subclasses handle it like any other block, and the descendants of an
+     * orphan which turns out to be invalid are dropped there.
+     *
+     * @param blockHash the hash of the connected block
+     */
+    private void connectOrphans(Hash256 blockHash) {
+        connectableOrphans.addAll(orphanPool.removeChildren(blockHash));
+        if (connectingOrphans) {
+            return;
+        }
+        connectingOrphans = true;
+        try {
+            while (!connectableOrphans.isEmpty()) {
+                receiveBlock(connectableOrphans.poll());
             }
+        }
+        finally {
+            connectingOrphans = false;
+        }
+    }
 
-            // Get current UTXO and UTXO used in transaction pool
-            ArrayList<TxOutput> UTXOs = trackUTXO(helper.getHash(blockChain.getCurrTail()));
-            ArrayList<TxOutput> poolUTXOs = new ArrayList<>();
-            for (Transaction poolTransaction : transactionPool) {
-                for (TxInput poolInput : poolTransaction.getInputs()) {
-                    Transaction prevTransaction = blockChain.getTransaction(poolInput.getTxHash());
-                    TxOutput prevOutput = prevTransaction.getOutputs().get(poolInput.getOutputIndex());
-                    poolUTXOs.add(prevOutput);
-                }
-            }
+    boolean validateTransaction(Transaction transaction) {
+        return getPoolFee(transaction) >= 0;
+    }
 
-            long totalInputAmount = 0;
+    /**
+     * Validates a transaction against the current tail's UTXO set and the transaction pool, and returns the fee it
+     * pays. Inputs may spend outputs of pool transactions, but not outputs already spent in the pool or by another
+     * input of the same transaction.
+     *
+     * @param transaction the transaction to be validated
+     * @return the fee of the transaction, or -1 if it is invalid
+     */
+    private long getPoolFee(Transaction transaction) {
+        if (!checkTransaction(transaction)) {
+            return -1;
+        }
+        ArrayList<TxOutput> prevOutputs = new ArrayList<>();
+        HashSet<OutPoint> spent = new HashSet<>();
+        long totalInputAmount = 0;
+        try {
+            UTXOSet UTXOs = trackUTXO(blockChain.getCurrTail().getHash());
             for (TxInput input : transaction.getInputs()) {
-                // Make sure input is not a coinBase input (coinBase input should not be broadcasted)
-                if (TxInput.isCoinBaseInput(input)) {
-                    return false;
-                }
-                // Make sure input is in UTXO set, and not already reference in the transaction pool
-                Transaction prevTransaction = blockChain.getTransaction(input.getTxHash());
-                TxOutput prevOutput = prevTransaction.getOutputs().get(input.getOutputIndex());
-                if (!UTXOs.contains(prevOutput)) {
-                    return false;
+                // Make sure input is in UTXO set or created in the pool, and not already spent in the pool or by an
+                // earlier input of this transaction
+                TxOutput prevOutput = UTXOs.get(input.getOutPoint());
+                if (prevOutput == null) {
+                    prevOutput = mempool.getOutput(input.getOutPoint());
                 }
-                if (poolUTXOs.contains(prevOutput)) {
-                    return false;
-                }
-                // Make sure input signature and public key is valid
-                if (!helper.pubKeyToHexAddr(input.getPublicKey()).equals(prevOutput.getHexAddr())) {
-                    return false;
-                }
-                if (!helper.verifySig(input.getPublicKey(), helper.getHash(prevOutput), input.getSignature())) {
-                    return false;
+                if (prevOutput == null || mempool.getSpender(input.getOutPoint()) != null
+                        || !spent.add(input.getOutPoint())) {
+                    return -1;
                 }
+                prevOutputs.add(prevOutput);
                 totalInputAmount += prevOutput.getAmount();
             }
 
             // Make sure total input amount is larger than 0
-            if (totalInputAmount == 0 || totalInputAmount < totalOutputAmount) {
-                return false;
+            if (totalInputAmount == 0 || totalInputAmount < transaction.getTotalAmount()) {
+                return -1;
             }
         }
         catch (BlockChainException e) {
             throw new IllegalStateException(e);
         }
-        return true;
+        // Make sure input signatures and public keys are valid
+        if (!verifyInputs(transaction.getInputs(), prevOutputs)) {
+            return -1;
+        }
+        return totalInputAmount - transaction.getTotalAmount();
     }
 
-    private boolean validateBlock(Block block) {
+    /**
+     * Validates a block against the UTXO set of its parent. The set after a valid block is cached along with its
+     * undo record, so the block connects without being applied again once it is added to the chain.
+     *
+     * @param block the block to be validated
+     * @return a boolean representing whether the block is valid
+     */
+    boolean validateBlock(Block block) {
+        // Make sure block hash satisfies the proof of work
+        if (!helper.meetsDifficulty(block.getHash().getBytes(), Constants.miningDifficulty)) {
+            return false;
+        }
+        ArrayList<Transaction> transactions = block.getAllTransactions();
+        if (transactions.isEmpty()) {
+            return false;
+        }
+        // Make sure first transaction has only one coinbase input
+        if (transactions.get(0).getInputs().size() != 1) {
+            return false;
+        }
+        TxInput coinBaseInput = transactions.get(0).getInputs().get(0);
+        if (!TxInput.isCoinBaseInput(coinBaseInput)) {
+            return false;
+        }
+
+        for (int i = 1; i < transactions.size(); i++) {
+            if (!checkTransaction(transactions.get(i))) {
+                return false;
+            }
+        }
+
+        // UTXO accounting against the parent block, which has to be done in order
+        UTXOSet UTXOs;
         try {
-            ArrayList<Transaction> transactions = block.getAllTransactions();
-            long totalFee = 0;
-            for (int i = 1; i < transactions.size(); i++) {
-                if (!validateTransaction(transactions.get(i))) {
-                    return false;
+            UTXOs = trackUTXO(block.getPrevHash());
+        }
+        catch (BlockChainException e) {
+            // Prev hash does not exist
+            return false;
+        }
+        // Connecting rejects any output which already exists, ie. a repeated coinbase with one output still unspent,
+        // so a block is only added to the chain once its set can be derived
+        BlockUndo undo = new BlockUndo();
+        UTXOSet blockUTXOs;
+        try {
+            blockUTXOs = UTXOs.connectBlock(block, undo);
+        }
+        catch (BlockChainException e) {
+            return false;
+        }
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        ArrayList<TxOutput> prevOutputs = new ArrayList<>();
+        HashSet<OutPoint> blockSpent = new HashSet<>();
+        // Outputs of earlier transactions in the block, which later transactions may spend
+        HashMap<OutPoint, TxOutput> blockCreated = new HashMap<>();
+        long totalFee = 0;
+        for (int i = 1; i < transactions.size(); i++) {
+            long totalInputAmount = 0;
+            for (TxInput input : transactions.get(i).getInputs()) {
+                // Also rejects outputs spent twice in the same block
+                TxOutput prevOutput = UTXOs.get(input.getOutPoint());
+                if (prevOutput == null) {
+                    prevOutput = blockCreated.get(input.getOutPoint());
                 }
-                long totalInputAmount = 0;
-                for (TxInput input : transactions.get(i).getInputs()) {
-                    Transaction prevTransaction = blockChain.getTransaction(input.getTxHash());
-                    TxOutput prevOutput = prevTransaction.getOutputs().get(input.getOutputIndex());
-                    totalInputAmount += prevOutput.getAmount();
+                if (prevOutput == null || !blockSpent.add(input.getOutPoint())) {
+                    return false;
                 }
-                totalFee += totalInputAmount - transactions.get(i).getTotalAmount();
+                inputs.add(input);
+                prevOutputs.add(prevOutput);
+                totalInputAmount += prevOutput.getAmount();
             }
-            // Make sure first transaction has only one coinbase input
-            if (transactions.get(0).getInputs().size() != 1) {
+            if (totalInputAmount < transactions.get(i).getTotalAmount()) {
                 return false;
             }
-            TxInput coinBaseInput = transactions.get(0).getInputs().get(0);
-            if (!TxInput.isCoinBaseInput(coinBaseInput)) {
-                return false;
+            totalFee += totalInputAmount - transactions.get(i).getTotalAmount();
+            ArrayList<TxOutput> outputs = transactions.get(i).getOutputs();
+            for (int j = 0; j < outputs.size(); j++) {
+                blockCreated.put(new OutPoint(transactions.get(i).getHash(), j), outputs.get(j));
             }
-            // Make sure output of coinbase transaction is correct
-            if (transactions.get(0).getTotalAmount() != Constants.miningReward + totalFee) {
+        }
+        // Make sure output of coinbase transaction is correct
+        if (transactions.get(0).getTotalAmount() != Constants.miningReward + totalFee) {
+            return false;
+        }
+        // Input signatures of the whole block as one batch
+        if (!verifyInputs(inputs, prevOutputs)) {
+            return false;
+        }
+        blockUndos.put(block.getHash(), undo);
+        utxoViews.put(block.getHash(), blockUTXOs);
+        return true;
+    }
+
+    /**
+     * Checks of a non-coinbase transaction that do not depend on the blockchain
+     */
+    private boolean checkTransaction(Transaction transaction) {
+        // Input and outputs must not be empty
+        if (transaction.getInputs().isEmpty() || transaction.getOutputs().isEmpty()) {
+            return false;
+        }
+        // Sum of outputs must be larger than 0
+        if (transaction.getTotalAmount() == 0) {
+            return false;
+        }
+        // Make sure no input is a coinBase input (coinBase input should not be broadcasted)
+        for (TxInput input : transaction.getInputs()) {
+            if (TxInput.isCoinBaseInput(input)) {
                 return false;
             }
         }
-        catch (BlockChainException e) {
-            throw new IllegalStateException(e);
+        return true;
+    }
+
+    /**
+     * Verifies the public key and signature of every input against the output it spends, using the validation pool
+     * when parallel validation is enabled. Stops at the first invalid input.
+     */
+    private boolean verifyInputs(List<TxInput> inputs, List<TxOutput> prevOutputs) {
+        if (!parallelValidation || inputs.size() < 2) {
+            for (int i = 0; i < inputs.size(); i++) {
+                if (!verifyInput(inputs.get(i), prevOutputs.get(i))) {
+                    return false;
+                }
+            }
+            return true;
         }
+        // allMatch cancels the remaining work as soon as one input fails
+        return validationPool.submit(() -> IntStream.range(0, inputs.size()).parallel()
+                .allMatch(i -> verifyInput(inputs.get(i), prevOutputs.get(i)))).join();
+    }
+
+    private boolean verifyInput(TxInput input, TxOutput prevOutput) {
+        // The input hash covers the referenced output, signature and public key, so it identifies the whole check
+        if (signatureCache.contains(input.getHash())) {
+            return true;
+        }
+        if (!helper.pubKeyToHexAddr(input.getPublicKey()).equals(prevOutput.getHexAddr())) {
+            return false;
+        }
+        if (!helper.verifySig(input.getPublicKey(), prevOutput.getHash().toString(), input.getSignature())) {
+            return false;
+        }
+        signatureCache.add(input.getHash());
         return true;
     }
 
-    private ArrayList<TxOutput> trackUTXO(String blockHash) throws BlockChainException {
-        if (utxoStorage.get(blockHash) != null) {
-            nextUpdateUTXO = blockChain.getHeight(blockHash) + Constants.utxoStorageFreq;
-            return utxoStorage.get(blockHash);
+    /**
+     * Returns the UTXO set as of a block. A set that is not cached is derived from the closest cached ancestor, or
+     * from the current tail's set by disconnecting blocks back to the fork point. Sets are immutable and the caches
+     * it reads through are synchronized, so this can be called from several threads while no block is being added.
+     *
+     * @param blockHash the hash of the block, or Hash256.ZERO for the empty set before the genesis block
+     * @return the UTXO set after the block
+     * @throws BlockChainException when the block does not exist
+     */
+    UTXOSet trackUTXO(Hash256 blockHash) throws BlockChainException {
+        Hash256 tipHash = utxoTip;
+        UTXOSet tipUTXO = utxoSet;
+        if (blockHash.equals(tipHash)) {
+            return tipUTXO;
+        }
+        // Walk back until a block whose set is known, or a block on the branch of the current tail
+        ArrayList<Block> toConnect = new ArrayList<>();
+        Hash256 currHash = blockHash;
+        UTXOSet view = utxoViews.get(currHash);
+        while (view == null) {
+            if (currHash.equals(Hash256.ZERO)) {
+                view = new UTXOSet();
+            }
+            else if (blockChain.isAncestor(currHash, tipHash)) {
+                view = disconnectBack(tipHash, tipUTXO, currHash);
+            }
+            else {
+                Block block = blockChain.getBlock(currHash);
+                toConnect.add(block);
+                currHash = block.getPrevHash();
+                view = utxoViews.get(currHash);
+            }
         }
-        Block block = blockChain.getBlock(blockHash);
-        ArrayList<TxOutput> prevUTXO;
-        if (Block.isGenesis(block)) {
-            prevUTXO = new ArrayList<>();
+        for (int i = toConnect.size() - 1; i >= 0; i--) {
+            Block block = toConnect.get(i);
+            BlockUndo undo = new BlockUndo();
+            view = view.connectBlock(block, undo);
+            blockUndos.put(block.getHash(), undo);
+            utxoViews.put(block.getHash(), view);
         }
-        else {
-            prevUTXO = trackUTXO(block.getPrevHash());
+        return view;
+    }
+
+    // Derives the set of an ancestor by disconnecting the blocks after it from a descendant's set
+    private UTXOSet disconnectBack(Hash256 blockHash, UTXOSet view, Hash256 ancestorHash) throws BlockChainException {
+        while (!blockHash.equals(ancestorHash)) {
+            Block block = blockChain.getBlock(blockHash);
+            view = view.disconnectBlock(block, getUndo(block));
+            blockHash = block.getPrevHash();
+            utxoViews.put(blockHash, view);
         }
-        for (Transaction transaction : block.getAllTransactions()) {
-            for (TxInput input : transaction.getInputs()) {
-                if (!TxInput.isCoinBaseInput(input)) {
-                    Transaction prevTransaction = blockChain.getTransaction(input.getTxHash());
-                    TxOutput prevOutput = prevTransaction.getOutputs().get(input.getOutputIndex());
-                    prevUTXO.remove(prevOutput);
+        return view;
+    }
+
+    private BlockUndo getUndo(Block block) throws BlockChainException {
+        BlockUndo undo = blockUndos.get(block.getHash());
+        if (undo == null) {
+            // Blocks connected before the node started from a snapshot have no undo record yet
+            undo = new BlockUndo();
+            for (Transaction transaction : block.getAllTransactions()) {
+                for (TxInput input : transaction.getInputs()) {
+                    if (!TxInput.isCoinBaseInput(input)) {
+                        Transaction prevTransaction = blockChain.getTransaction(input.getTxHash());
+                        undo.addSpent(input.getOutPoint(), prevTransaction.getOutputs().get(input.getOutputIndex()));
+                    }
                 }
             }
-            prevUTXO.addAll(transaction.getOutputs());
-        }
-        if (blockChain.getHeight(blockHash) == nextUpdateUTXO) {
-            utxoStorage.put(blockHash, prevUTXO);
+            blockUndos.put(block.getHash(), undo);
         }
-        return prevUTXO;
+        return undo;
     }
 
 }
@@ -1,22 +1,58 @@
 package edu.cis.Controller;
 
-import com.sun.org.apache.xerces.internal.util.TeeXMLDocumentFilterImpl;
 import edu.cis.Model.*;
-import edu.cis.Utils.Helper;
+import edu.cis.Utils.Hash256;
 
 import java.security.KeyPair;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class Wallet extends Node {
 
-    private ArrayList<KeyPair> unconfirmedKeyPairs;
-    private ArrayList<KeyPair> confirmedKeyPairs;
-    private ArrayList<TxInput> confirmedUTXOInputs;
+    private enum KeyState {
+        // Address has been generated, but no transaction paying to it has been seen
+        UNCONFIRMED,
+        // A transaction paying to the address is in the transaction pool
+        CONFIRMED,
+        // The payment to the address has been included in a block and added to the UTXO inputs
+        RECEIVED
+    }
+
+    private static class WalletKey {
+
+        private final KeyPair keyPair;
+        private KeyState state;
+
+        public WalletKey(KeyPair keyPair) {
+            this.keyPair = keyPair;
+            this.state = KeyState.UNCONFIRMED;
+        }
+    }
+
+    /**
+     * Output received by the wallet, along with the block it was received in, so the balance does not need the
+     * transactions of old blocks (which may have been pruned)
+     */
+    private static class WalletUTXO {
+
+        private final TxInput input;
+        private final int amount;
+        private final Hash256 blockHash;
+
+        public WalletUTXO(TxInput input, int amount, Hash256 blockHash) {
+            this.input = input;
+            this.amount = amount;
+            this.blockHash = blockHash;
+        }
+    }
+
+    // Keys indexed by their address, which is only computed once when the key is generated
+    private HashMap<String, WalletKey> keysByAddress;
+    private ArrayList<WalletUTXO> confirmedUTXOInputs;
 
     public Wallet() {
         super();
-        this.unconfirmedKeyPairs = new ArrayList<>();
-        this.confirmedKeyPairs = new ArrayList<>();
+        this.keysByAddress = new HashMap<>();
         this.confirmedUTXOInputs = new ArrayList<>();
     }
 
@@ -24,14 +60,10 @@ public class Wallet extends Node {
     public boolean receiveTransaction(Transaction transaction) {
         if (super.receiveTransaction(transaction)) {
             for (TxOutput output : transaction.getOutputs()) {
-                ArrayList<KeyPair> toRemove = new ArrayList<>();
-                for (KeyPair keyPair : unconfirmedKeyPairs) {
-                    if (helper.pubKeyToHexAddr(keyPair.getPublic()).equals(output.getHexAddr())) {
-                        confirmedKeyPairs.add(keyPair);
-                        toRemove.add(keyPair);
-                    }
+                WalletKey key = keysByAddress.get(output.getHexAddr());
+                if (key != null && key.state == KeyState.UNCONFIRMED) {
+                    key.state = KeyState.CONFIRMED;
                 }
-                unconfirmedKeyPairs.removeAll(toRemove);
             }
             return true;
         }
@@ -41,20 +73,23 @@ public class Wallet extends Node {
     @Override
     public boolean receiveBlock(Block block) {
         if (super.receiveBlock(block)) {
-            for (Transaction transaction : block.getAllTransactions()) {
+            ArrayList<Transaction> transactions = block.getAllTransactions();
+            for (int txIndex = 0; txIndex < transactions.size(); txIndex++) {
+                Transaction transaction = transactions.get(txIndex);
                 for (int outIndex = 0; outIndex < transaction.getOutputs().size(); outIndex++) {
                     TxOutput output = transaction.getOutputs().get(outIndex);
-                    ArrayList<KeyPair> toRemove = new ArrayList<>();
-                    for (KeyPair keyPair : confirmedKeyPairs) {
-                        if (helper.pubKeyToHexAddr(keyPair.getPublic()).equals(output.getHexAddr())) {
-                            TxInput UTXO = new TxInput(helper.getHash(transaction), outIndex,
-                                                       helper.generateSig(keyPair.getPrivate(), helper.getHash(output)),
-                                                       keyPair.getPublic());
-                            confirmedUTXOInputs.add(UTXO);
-                            toRemove.add(keyPair);
-                        }
+                    WalletKey key = keysByAddress.get(output.getHexAddr());
+                    // A coinbase never passes through the pool, so its address is still unconfirmed
+                    if (key != null && (key.state == KeyState.CONFIRMED
+                            || key.state == KeyState.UNCONFIRMED && txIndex == 0)) {
+                        KeyPair keyPair = key.keyPair;
+                        TxInput UTXO = new TxInput(transaction.getHash(), outIndex,
+                                                   helper.generateSig(keyPair.getPrivate(),
+                                                                      output.getHash().toString()),
+                                                   keyPair.getPublic());
+                        confirmedUTXOInputs.add(new WalletUTXO(UTXO, output.getAmount(), block.getHash()));
+                        key.state = KeyState.RECEIVED;
                     }
-                    confirmedKeyPairs.removeAll(toRemove);
                 }
             }
             return true;
@@ -64,18 +99,17 @@ public class Wallet extends Node {
 
     public String generateAddress() {
         KeyPair keyPair = helper.generateKeyPair();
-        unconfirmedKeyPairs.add(keyPair);
-        return helper.pubKeyToHexAddr(keyPair.getPublic());
+        String address = helper.pubKeyToHexAddr(keyPair.getPublic());
+        keysByAddress.put(address, new WalletKey(keyPair));
+        return address;
     }
 
     public long getBalance() {
         long balance = 0;
-        for (TxInput input : confirmedUTXOInputs) {
+        for (WalletUTXO UTXO : confirmedUTXOInputs) {
             try {
-                Block container = this.blockChain.getContainerBlock(input.getTxHash());
-                if (this.blockChain.isConfirmed(helper.getHash(container))) {
-                    Transaction transaction = container.getTransaction(input.getTxHash());
-                    balance += transaction.getOutputs().get(input.getOutputIndex()).getAmount();
+                if (this.blockChain.isConfirmed(UTXO.blockHash)) {
+                    balance += UTXO.amount;
                 }
             }
             catch (BlockChainException e) {
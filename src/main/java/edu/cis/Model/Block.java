@@ -2,9 +2,10 @@ package edu.cis.Model;
 
 import edu.cis.Controller.Wallet;
 import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
 import edu.cis.Utils.Helper;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -16,34 +17,38 @@ import java.util.HashMap;
  */
 public class Block extends Byteable {
 
+    // Size of the header (prevHash, merkleRoot, timestamp, nonce) in bytes
+    public static final int HEADER_SIZE = 76;
+
     private Helper helper;
 
-    private String prevHash;
-    private String merkleRoot;
+    private Hash256 prevHash;
     private long timestamp;
     private int nonce;
     private ArrayList<Transaction> transactions;
-    private HashMap<String, Transaction> transactionHashMap;
+    private HashMap<Hash256, Transaction> transactionHashMap;
+    // Merkle tree stored level by level, level 0 holds the transaction hashes and the last level holds the root
+    private ArrayList<ArrayList<Hash256>> merkleLevels;
 
-    public Block(String prevHash) {
+    public Block(Hash256 prevHash) {
         this.helper = Helper.getInstance();
         this.prevHash = prevHash;
         this.timestamp = System.currentTimeMillis();
         this.nonce = 0;
         this.transactions = new ArrayList<>();
         this.transactionHashMap = new HashMap<>();
+        this.merkleLevels = new ArrayList<>();
     }
 
     public static Block genesis(Wallet creator) {
         try {
-            Block genesis = new Block(Helper.getInstance().byteToHex(new byte[32]));
+            Block genesis = new Block(Hash256.ZERO);
             ArrayList<TxInput> inputs = new ArrayList<>();
             inputs.add(TxInput.coinBaseInput());
             ArrayList<TxOutput> outputs = new ArrayList<>();
             outputs.add(new TxOutput(Constants.miningReward, creator.generateAddress()));
             Transaction coinBase = new Transaction(inputs, outputs);
             genesis.addTransaction(coinBase);
-            genesis.setMerkleRoot();
             return genesis;
         }
         catch (BlockChainException e) {
@@ -52,16 +57,36 @@ public class Block extends Byteable {
     }
 
     public static boolean isGenesis(Block block) {
-        if (block.getPrevHash().equals(Helper.getInstance().byteToHex(new byte[32]))) {
+        if (block.getPrevHash().equals(Hash256.ZERO)) {
             return true;
         }
         return false;
     }
 
-    public String getPrevHash() {
+    public Hash256 getPrevHash() {
         return prevHash;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Used by the miner once a valid timestamp and nonce pair has been found for the current header
+     *
+     * @param timestamp the timestamp of the solution
+     * @param nonce the nonce of the solution
+     */
+    public void setProofOfWork(long timestamp, int nonce) {
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        invalidateHash();
+    }
+
     /**
      * Used when all possible values of the nonce has been tried, and a solution has not been found. By changing the
      * timestamp, all possible values of the nonce can be tried again, since the hash will be different
@@ -74,6 +99,7 @@ public class Block extends Byteable {
             // Used when all possible values of the nonce has been looped through in under a second
             timestamp += 1;
         }
+        invalidateHash();
     }
 
     public void incrementNonce() {
@@ -87,13 +113,20 @@ public class Block extends Byteable {
         else {
             nonce++;
         }
+        invalidateHash();
     }
 
+    /**
+     * Returns the transactions of the block. The list must not be modified directly, since the merkle tree is only
+     * updated by addTransaction (call setMerkleRoot to rebuild it if the list was changed).
+     *
+     * @return the transactions of the block
+     */
     public ArrayList<Transaction> getAllTransactions() {
         return transactions;
     }
 
-    public Transaction getTransaction(String transactionHash) throws BlockChainException {
+    public Transaction getTransaction(Hash256 transactionHash) throws BlockChainException {
         Transaction transaction = transactionHashMap.get(transactionHash);
         if (transaction == null) {
             throw new BlockChainException("blockGetTransaction", "Transaction does not exist");
@@ -102,42 +135,136 @@ public class Block extends Byteable {
     }
 
     public void addTransaction(Transaction transaction) throws BlockChainException {
-        if (transactionHashMap.get(helper.getHash(transaction)) != null) {
+        Hash256 transactionHash = transaction.getHash();
+        if (transactionHashMap.get(transactionHash) != null) {
             throw new BlockChainException("blockAddTransaction", "Transaction already exists");
         }
         transactions.add(transaction);
-        transactionHashMap.put(helper.getHash(transaction), transaction);
+        transactionHashMap.put(transactionHash, transaction);
+        appendMerkleLeaf(transactionHash);
+        invalidateHash();
     }
 
-    public String getMerkleRoot() {
-        return merkleRoot;
+    public Hash256 getMerkleRoot() {
+        if (merkleLevels.isEmpty()) {
+            return Hash256.ZERO;
+        }
+        return merkleLevels.get(merkleLevels.size() - 1).get(0);
     }
 
+    /**
+     * Rebuilds the whole merkle tree from the transaction list
+     */
     public void setMerkleRoot() {
-        this.merkleRoot = helper.byteToHex(computeMerkle(0 ,transactions.size()));
+        merkleLevels.clear();
+        for (Transaction transaction : transactions) {
+            appendMerkleLeaf(transaction.getHash());
+        }
+        invalidateHash();
+    }
+
+    /**
+     * Adds a transaction hash to the merkle tree. Nodes are paired from the left on each level, and a node without a
+     * sibling is moved up a level unchanged, so only the rightmost path of the tree has to be updated.
+     */
+    private void appendMerkleLeaf(Hash256 transactionHash) {
+        if (merkleLevels.isEmpty()) {
+            merkleLevels.add(new ArrayList<>());
+        }
+        merkleLevels.get(0).add(transactionHash);
+        int level = 0;
+        while (merkleLevels.get(level).size() > 1) {
+            ArrayList<Hash256> nodes = merkleLevels.get(level);
+            if (merkleLevels.size() == level + 1) {
+                merkleLevels.add(new ArrayList<>());
+            }
+            ArrayList<Hash256> parents = merkleLevels.get(level + 1);
+            int index = nodes.size() - 1;
+            Hash256 parent = index % 2 == 0 ? nodes.get(index) : hashPair(nodes.get(index - 1), nodes.get(index));
+            if (index / 2 < parents.size()) {
+                parents.set(index / 2, parent);
+            }
+            else {
+                parents.add(parent);
+            }
+            level++;
+        }
     }
 
-    private byte[] computeMerkle(int start, int end) {
-        if (end <= start + 1) {
-            return helper.hexToByte(helper.getHash(transactions.get(start)));
+    /**
+     * Returns a proof that a transaction is part of this block, which can be checked against the merkle root with
+     * verifyMerkleProof without the other transactions of the block
+     *
+     * @param transactionHash the hash of the transaction
+     * @return the merkle proof of the transaction
+     * @throws BlockChainException when the transaction is not in the block
+     */
+    public MerkleProof getMerkleProof(Hash256 transactionHash) throws BlockChainException {
+        int index = merkleLevels.isEmpty() ? -1 : merkleLevels.get(0).indexOf(transactionHash);
+        if (index < 0) {
+            throw new BlockChainException("blockGetMerkleProof", "Transaction does not exist");
+        }
+        ArrayList<Hash256> siblings = new ArrayList<>();
+        int currIndex = index;
+        for (int level = 0; level < merkleLevels.size() - 1; level++) {
+            ArrayList<Hash256> nodes = merkleLevels.get(level);
+            int siblingIndex = currIndex % 2 == 0 ? currIndex + 1 : currIndex - 1;
+            if (siblingIndex < nodes.size()) {
+                siblings.add(nodes.get(siblingIndex));
+            }
+            currIndex /= 2;
         }
-        byte[] combinedHash = helper.combineByteArrays(computeMerkle(start, (start + end) / 2),
-                                                       computeMerkle((start + end) / 2, end));
-        return helper.SHA256(helper.SHA256(combinedHash));
+        return new MerkleProof(index, transactions.size(), siblings);
+    }
+
+    /**
+     * Checks that a merkle proof links a transaction to a merkle root
+     *
+     * @param transactionHash the hash of the transaction
+     * @param proof the merkle proof of the transaction
+     * @param merkleRoot the merkle root of the block
+     * @return a boolean representing whether the transaction is included under the merkle root
+     */
+    public static boolean verifyMerkleProof(Hash256 transactionHash, MerkleProof proof, Hash256 merkleRoot) {
+        int index = proof.getIndex();
+        int nodeCount = proof.getTransactionCount();
+        if (index < 0 || index >= nodeCount) {
+            return false;
+        }
+        Hash256 hash = transactionHash;
+        int siblingIndex = 0;
+        while (nodeCount > 1) {
+            if (index % 2 == 1 || index + 1 < nodeCount) {
+                if (siblingIndex >= proof.getSiblings().size()) {
+                    return false;
+                }
+                Hash256 sibling = proof.getSiblings().get(siblingIndex++);
+                hash = index % 2 == 1 ? hashPair(sibling, hash) : hashPair(hash, sibling);
+            }
+            index /= 2;
+            nodeCount = (nodeCount + 1) / 2;
+        }
+        return siblingIndex == proof.getSiblings().size() && hash.equals(merkleRoot);
+    }
+
+    private static Hash256 hashPair(Hash256 left, Hash256 right) {
+        ByteBuffer buffer = ByteBuffer.allocate(Hash256.SIZE * 2);
+        left.writeTo(buffer);
+        right.writeTo(buffer);
+        buffer.flip();
+        return Hash256.wrap(Helper.getInstance().getCryptoEngine().sha256d(buffer));
     }
 
     @Override
-    public byte[] getBytes() {
-        return getBytes(false);
+    public int getByteSize() {
+        return HEADER_SIZE;
     }
 
-    public byte[] getBytes(boolean omitMerkleRecalculate) {
-        if (!omitMerkleRecalculate) {
-            setMerkleRoot();
-        }
-        return helper.combineByteArrays(helper.hexToByte(prevHash),
-                                        helper.hexToByte(merkleRoot),
-                                        helper.numToByte(BigInteger.valueOf(timestamp), 4),
-                                        helper.numToByte(BigInteger.valueOf(nonce), 4));
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        prevHash.writeTo(buffer);
+        getMerkleRoot().writeTo(buffer);
+        buffer.putLong(timestamp);
+        buffer.putInt(nonce);
     }
 }
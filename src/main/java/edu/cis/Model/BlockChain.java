@@ -1,98 +1,217 @@
 package edu.cis.Model;
 
 import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
 import edu.cis.Utils.Helper;
 
-import javax.xml.crypto.dsig.TransformService;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class BlockChain {
 
+    /**
+     * A block in the tree of blocks. The hash, height and links to other blocks are all read from the block's entry
+     * in the header chain, so the node itself only adds the body.
+     */
     private class BlockChainNode {
 
+        // Entry of the block's header in the header chain
+        private final int headerIndex;
+        // Null when the block body is kept in the block store or has been pruned
         private Block block;
-        private BlockChainNode prevNode;
-        private int blockHeight;
+        private boolean pruned;
 
-        public BlockChainNode(Block block, BlockChainNode prevNode) {
+        public BlockChainNode(int headerIndex, Block block) {
+            this.headerIndex = headerIndex;
             this.block = block;
-            this.prevNode = prevNode;
-            if (prevNode == null) {
-                this.blockHeight = 0;
-            }
-            else {
-                this.blockHeight = prevNode.blockHeight + 1;
-            }
         }
 
-        public Block getBlock() {
-            return block;
-        }
-
-        public void setBlock(Block block) {
-            this.block = block;
+        public Hash256 getHash() {
+            return headerChain.getHash(headerIndex);
         }
 
         public BlockChainNode getPrevNode() {
-            return prevNode;
+            int prevIndex = headerChain.getPrevIndex(headerIndex);
+            return prevIndex < 0 ? null : nodes.get(prevIndex);
         }
 
-        public void setPrevNode(BlockChainNode prevNode) {
-            this.prevNode = prevNode;
-            if (prevNode == null) {
-                this.blockHeight = 0;
-            }
-            else {
-                this.blockHeight = prevNode.blockHeight + 1;
-            }
+        public int getBlockHeight() {
+            return headerChain.getHeight(headerIndex);
         }
 
-        public int getBlockHeight() {
-            return blockHeight;
+        /**
+         * Returns the ancestor of this node at a height
+         *
+         * @param height the height of the ancestor
+         * @return the ancestor, or null if the height is above this node or negative
+         */
+        public BlockChainNode getAncestor(int height) {
+            int ancestorIndex = headerChain.getAncestor(headerIndex, height);
+            return ancestorIndex < 0 ? null : nodes.get(ancestorIndex);
         }
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof BlockChainNode) {
-                return this.block.equals(((BlockChainNode) obj).block);
-            }
-            return super.equals(obj);
+    /**
+     * Position of a transaction in a block. The same transaction can be in blocks of several forks, in which case the
+     * locations are linked through next.
+     */
+    private static class TxLocation {
+
+        private final BlockChainNode node;
+        private final int position;
+        private final TxLocation next;
+
+        public TxLocation(BlockChainNode node, int position, TxLocation next) {
+            this.node = node;
+            this.position = position;
+            this.next = next;
         }
     }
 
     private Helper helper;
+    // Headers of all blocks, the nodes below only link them to their bodies
+    private HeaderChain headerChain;
+    // Nodes indexed by the entry of their header
+    private ArrayList<BlockChainNode> nodes;
     private BlockChainNode head;
-    private TreeSet<BlockChainNode> tails;
-    private HashMap<String, BlockChainNode> blockHashMap;
+    // Blocks without children, and the highest of them (the first one seen wins a tie)
+    private HashSet<BlockChainNode> tails;
+    private BlockChainNode bestTail;
+    // Blocks of the main chain indexed by height, from the head to bestTail
+    private ArrayList<BlockChainNode> mainChain;
+    private HashMap<Hash256, BlockChainNode> blockHashMap;
+    private HashMap<Hash256, TxLocation> txLocationMap;
+    // When set, only the index nodes are kept on the heap, and bodies are read back through a bounded cache
+    private BlockStore blockStore;
+    // Synchronized since reading a block reorders the cache, and blocks may be read from several threads
+    private Map<Hash256, Block> blockCache;
+    // Height of the highest main chain block whose body has been pruned, -1 when nothing has been pruned
+    private int prunedHeight;
 
     public BlockChain() {
         this.helper = Helper.getInstance();
-        this.tails = new TreeSet<>((node1, node2) -> node1.blockHeight - node2.blockHeight);
+        this.headerChain = new HeaderChain();
+        this.nodes = new ArrayList<>();
+        this.tails = new HashSet<>();
+        this.mainChain = new ArrayList<>();
         this.blockHashMap = new HashMap<>();
+        this.txLocationMap = new HashMap<>();
+        this.prunedHeight = -1;
+    }
+
+    /**
+     * Creates a blockchain backed by a block store, and rebuilds the index from the blocks already in the store
+     *
+     * @param blockStore the store holding the block bodies
+     * @throws BlockChainException when a stored block cannot be read
+     */
+    public BlockChain(BlockStore blockStore) throws BlockChainException {
+        this();
+        this.blockStore = blockStore;
+        this.blockCache = Collections.synchronizedMap(new LinkedHashMap<Hash256, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Hash256, Block> eldest) {
+                return size() > Constants.blockCacheSize;
+            }
+        });
+        for (Hash256 blockHash : blockStore.getBlockHashes()) {
+            ByteBuffer header = blockStore.readHeader(blockHash);
+            BlockChainNode prevNode = bestTail == null ? null : blockHashMap.get(Hash256.readFrom(header.duplicate()));
+            int headerIndex = headerChain.add(header, prevNode == null ? -1 : prevNode.headerIndex);
+            if (!headerChain.getHash(headerIndex).equals(blockHash)) {
+                throw new BlockChainException("blockChainLoad", "stored header does not match its hash");
+            }
+            addNode(headerIndex, prevNode, null, blockStore.readTransactionHashes(blockHash));
+        }
     }
 
     public Block getHead() throws BlockChainException {
-        if (size() == 0) {
+        if (bestTail == null) {
             throw new BlockChainException("blockChainGetHead", "block chain is empty");
         }
-        return head.getBlock();
+        return loadBlock(head);
     }
 
     public Block getCurrTail() throws BlockChainException {
-        if (size() == 0) {
+        if (bestTail == null) {
             throw new BlockChainException("blockChainGetTail", "block chain is empty");
         }
-        return tails.last().getBlock();
+        return loadBlock(bestTail);
+    }
+
+    /**
+     * Returns every block without children, ie. the tails of all forks
+     *
+     * @return the tail blocks, in no particular order
+     * @throws BlockChainException when a tail block cannot be read from the block store
+     */
+    public ArrayList<Block> getTails() throws BlockChainException {
+        ArrayList<Block> blocks = new ArrayList<>();
+        for (BlockChainNode tail : tails) {
+            blocks.add(loadBlock(tail));
+        }
+        return blocks;
     }
 
     public int size() {
-        if (tails.isEmpty()) {
+        if (bestTail == null) {
             return 0;
         }
-        return tails.last().getBlockHeight();
+        return bestTail.getBlockHeight();
+    }
+
+    /**
+     * Returns whether the chain has no blocks yet, ie. whether the next block added has to be the genesis block
+     *
+     * @return a boolean representing whether the chain is empty
+     */
+    public boolean isEmpty() {
+        return bestTail == null;
+    }
+
+    public boolean contains(Hash256 blockHash) {
+        return blockHashMap.containsKey(blockHash);
+    }
+
+    /**
+     * Returns the serialized header of a block, which is read from the header chain without loading the body, and is
+     * still available after the block has been pruned
+     *
+     * @param blockHash the hash of the block
+     * @return the header bytes
+     * @throws BlockChainException when the block does not exist
+     */
+    public byte[] getHeader(Hash256 blockHash) throws BlockChainException {
+        BlockChainNode blockChainNode = blockHashMap.get(blockHash);
+        if (blockChainNode == null) {
+            throw new BlockChainException("blockChainGetHeader", "block does not exist");
+        }
+        return headerChain.getHeader(blockChainNode.headerIndex);
     }
 
-    public int getHeight(String blockHash) throws BlockChainException {
+    /**
+     * Returns the headers of consecutive main chain blocks packed one after another, so a peer can sync headers
+     * before downloading any bodies
+     *
+     * @param fromHeight the height of the first header
+     * @param maxCount the maximum number of headers to be returned
+     * @return a buffer holding the headers, ready to be read
+     * @throws BlockChainException when the main chain is not that high
+     */
+    public ByteBuffer getHeaders(int fromHeight, int maxCount) throws BlockChainException {
+        if (fromHeight < 0 || fromHeight >= mainChain.size()) {
+            throw new BlockChainException("blockChainGetHeaders", "height is out of range");
+        }
+        int count = Math.min(maxCount, mainChain.size() - fromHeight);
+        ByteBuffer headers = ByteBuffer.allocate(count * Block.HEADER_SIZE);
+        for (int height = fromHeight; height < fromHeight + count; height++) {
+            headerChain.writeHeader(mainChain.get(height).headerIndex, headers);
+        }
+        headers.flip();
+        return headers;
+    }
+
+    public int getHeight(Hash256 blockHash) throws BlockChainException {
         BlockChainNode blockChainNode = blockHashMap.get(blockHash);
         if (blockChainNode == null) {
             throw new BlockChainException("blockChainGetHeight", "block does not exist");
@@ -100,70 +219,255 @@ public class BlockChain {
         return blockChainNode.getBlockHeight();
     }
 
-    public Block getBlock(String blockHash) throws BlockChainException {
+    public Block getBlock(Hash256 blockHash) throws BlockChainException {
         BlockChainNode blockChainNode = blockHashMap.get(blockHash);
         if (blockChainNode == null) {
             throw new BlockChainException("blockChainGetBlock", "block does not exist");
         }
-        return blockChainNode.getBlock();
+        return loadBlock(blockChainNode);
+    }
+
+    /**
+     * Returns the block of the main chain at a height
+     *
+     * @param height the height of the block
+     * @return the block at the height
+     * @throws BlockChainException when the main chain is not that high
+     */
+    public Block getBlock(int height) throws BlockChainException {
+        if (height < 0 || height >= mainChain.size()) {
+            throw new BlockChainException("blockChainGetBlock", "height is out of range");
+        }
+        return loadBlock(mainChain.get(height));
     }
 
-    public Block getContainerBlock(String transactionHash) throws BlockChainException {
-        for (BlockChainNode node : blockHashMap.values()) {
-            Block block = node.getBlock();
-            try {
-                Transaction transaction = block.getTransaction(transactionHash);
-                return block;
+    /**
+     * Returns the ancestor of a block at a height, which may be on a fork
+     *
+     * @param blockHash the hash of the block
+     * @param height the height of the ancestor
+     * @return the ancestor block
+     * @throws BlockChainException when the block does not exist, or is lower than the height
+     */
+    public Block getAncestor(Hash256 blockHash, int height) throws BlockChainException {
+        BlockChainNode blockChainNode = blockHashMap.get(blockHash);
+        if (blockChainNode == null) {
+            throw new BlockChainException("blockChainGetAncestor", "block does not exist");
+        }
+        BlockChainNode ancestor = blockChainNode.getAncestor(height);
+        if (ancestor == null) {
+            throw new BlockChainException("blockChainGetAncestor", "height is out of range");
+        }
+        return loadBlock(ancestor);
+    }
+
+    /**
+     * Checks whether a block is an ancestor of (or the same as) another block
+     *
+     * @param ancestorHash the hash of the possible ancestor
+     * @param blockHash the hash of the descendant, or Hash256.ZERO
+     * @return a boolean representing whether the first block is on the branch of the second
+     * @throws BlockChainException when the possible ancestor does not exist
+     */
+    public boolean isAncestor(Hash256 ancestorHash, Hash256 blockHash) throws BlockChainException {
+        BlockChainNode ancestorNode = blockHashMap.get(ancestorHash);
+        if (ancestorNode == null) {
+            throw new BlockChainException("blockChainIsAncestor", "block does not exist");
+        }
+        BlockChainNode blockChainNode = blockHashMap.get(blockHash);
+        if (blockChainNode == null) {
+            return false;
+        }
+        return blockChainNode.getAncestor(ancestorNode.getBlockHeight()) == ancestorNode;
+    }
+
+    public boolean isInMainChain(Hash256 blockHash) throws BlockChainException {
+        BlockChainNode blockChainNode = blockHashMap.get(blockHash);
+        if (blockChainNode == null) {
+            throw new BlockChainException("blockChainIsInMain", "block does not exist");
+        }
+        return isInMainChain(blockChainNode);
+    }
+
+    /**
+     * Returns the block containing a transaction, preferring the block on the main chain when the transaction is in
+     * several forks
+     *
+     * @param transactionHash the hash of the transaction
+     * @return the block containing the transaction
+     * @throws BlockChainException when no block contains the transaction
+     */
+    public Block getContainerBlock(Hash256 transactionHash) throws BlockChainException {
+        return loadBlock(getTxLocation(transactionHash).node);
+    }
+
+    public Transaction getTransaction(Hash256 transactionHash) throws BlockChainException {
+        TxLocation location = getTxLocation(transactionHash);
+        return loadBlock(location.node).getAllTransactions().get(location.position);
+    }
+
+    private TxLocation getTxLocation(Hash256 transactionHash) throws BlockChainException {
+        TxLocation location = txLocationMap.get(transactionHash);
+        if (location == null) {
+            throw new BlockChainException("blockChainGetContainerBlock", "container block does not exist");
+        }
+        if (location.next == null) {
+            return location;
+        }
+        for (TxLocation curr = location; curr != null; curr = curr.next) {
+            if (isInMainChain(curr.node)) {
+                return curr;
             }
-            catch (BlockChainException ignored) { }
         }
-        throw new BlockChainException("blockChainGetContainerBlock", "container block does not exist");
+        return location;
     }
 
-    public Transaction getTransaction(String transactionHash) throws BlockChainException {
-        Block block = getContainerBlock(transactionHash);
-        return block.getTransaction(transactionHash);
+    private boolean isInMainChain(BlockChainNode blockChainNode) {
+        int height = blockChainNode.getBlockHeight();
+        return height < mainChain.size() && mainChain.get(height) == blockChainNode;
     }
 
     public void addBlock(Block block) throws BlockChainException {
-        if (size() == 0) {
-            BlockChainNode newNode = new BlockChainNode(block, null);
+        if (bestTail != null) {
+            if (blockHashMap.containsKey(block.getHash())) {
+                throw new BlockChainException("blockChainAdd", "block already exists");
+            }
+            if (!blockHashMap.containsKey(block.getPrevHash())) {
+                throw new BlockChainException("blockChainGet", "prev hash is invalid");
+            }
+        }
+        ArrayList<Hash256> transactionHashes = new ArrayList<>();
+        for (Transaction transaction : block.getAllTransactions()) {
+            transactionHashes.add(transaction.getHash());
+        }
+        if (blockStore != null) {
+            blockStore.append(block);
+            blockCache.put(block.getHash(), block);
+        }
+        BlockChainNode prevNode = bestTail == null ? null : blockHashMap.get(block.getPrevHash());
+        int headerIndex = headerChain.add(block, prevNode == null ? -1 : prevNode.headerIndex);
+        addNode(headerIndex, prevNode, blockStore == null ? block : null, transactionHashes);
+    }
+
+    private void addNode(int headerIndex, BlockChainNode prevNode, Block block,
+                         ArrayList<Hash256> transactionHashes) {
+        // The map shares the header chain's hash instead of holding a copy
+        Hash256 blockHash = headerChain.getHash(headerIndex);
+        BlockChainNode newNode = new BlockChainNode(headerIndex, block);
+        nodes.add(newNode);
+        if (prevNode == null) {
             head = newNode;
-            tails.add(newNode);
-            blockHashMap.put(helper.getHash(block), newNode);
         }
         else {
-            if (blockHashMap.containsKey(helper.getHash(block))) {
-                throw new BlockChainException("blockChainAdd", "block already exists");
+            tails.remove(prevNode);
+        }
+        tails.add(newNode);
+        blockHashMap.put(blockHash, newNode);
+        for (int i = 0; i < transactionHashes.size(); i++) {
+            Hash256 transactionHash = transactionHashes.get(i);
+            txLocationMap.put(transactionHash, new TxLocation(newNode, i, txLocationMap.get(transactionHash)));
+        }
+        if (bestTail == null || newNode.getBlockHeight() > bestTail.getBlockHeight()) {
+            setBestTail(newNode);
+        }
+    }
+
+    // Switches the main chain to end at a new tail, only replacing the blocks after the fork point
+    private void setBestTail(BlockChainNode newTail) {
+        BlockChainNode forkNode = newTail;
+        while (forkNode != null && !isInMainChain(forkNode)) {
+            forkNode = forkNode.getPrevNode();
+        }
+        int forkHeight = forkNode == null ? -1 : forkNode.getBlockHeight();
+        while (mainChain.size() > forkHeight + 1) {
+            mainChain.remove(mainChain.size() - 1);
+        }
+        for (int height = forkHeight + 1; height <= newTail.getBlockHeight(); height++) {
+            mainChain.add(newTail.getAncestor(height));
+        }
+        bestTail = newTail;
+    }
+
+    /**
+     * Drops the transactions of the main chain blocks up to a height, keeping only their headers and their place in
+     * the chain. Pruned blocks can no longer be read, and their transactions are removed from the transaction index.
+     *
+     * @param maxHeight the height of the highest block to be pruned
+     * @return the hashes of the newly pruned blocks
+     * @throws BlockChainException when a block body cannot be read from the block store
+     */
+    public ArrayList<Hash256> pruneBlocks(int maxHeight) throws BlockChainException {
+        ArrayList<Hash256> prunedHashes = new ArrayList<>();
+        maxHeight = Math.min(maxHeight, mainChain.size() - 1);
+        for (int height = prunedHeight + 1; height <= maxHeight; height++) {
+            BlockChainNode blockChainNode = mainChain.get(height);
+            Block block = loadBlock(blockChainNode);
+            for (Transaction transaction : block.getAllTransactions()) {
+                unindexTransaction(transaction.getHash(), blockChainNode);
             }
-            BlockChainNode prevBlockNode = blockHashMap.get(block.getPrevHash());
-            if (prevBlockNode == null) {
-                throw new BlockChainException("blockChainGet", "prev hash is invalid");
+            blockChainNode.pruned = true;
+            blockChainNode.block = null;
+            if (blockCache != null) {
+                blockCache.remove(blockChainNode.getHash());
+            }
+            prunedHashes.add(blockChainNode.getHash());
+        }
+        prunedHeight = Math.max(prunedHeight, maxHeight);
+        return prunedHashes;
+    }
+
+    private void unindexTransaction(Hash256 transactionHash, BlockChainNode blockChainNode) {
+        // Rebuild the chain of locations without the pruned block, the locations themselves are immutable
+        TxLocation kept = null;
+        for (TxLocation curr = txLocationMap.get(transactionHash); curr != null; curr = curr.next) {
+            if (curr.node != blockChainNode) {
+                kept = new TxLocation(curr.node, curr.position, kept);
             }
-            BlockChainNode newNode = new BlockChainNode(block, prevBlockNode);
-            tails.remove(prevBlockNode);
-            tails.add(newNode);
-            blockHashMap.put(helper.getHash(block), newNode);
         }
+        if (kept == null) {
+            txLocationMap.remove(transactionHash);
+        }
+        else {
+            txLocationMap.put(transactionHash, kept);
+        }
+    }
+
+    // Returns the body of a block, from the node itself or through the cache of the block store. Two threads missing
+    // the cache at once both read the block, which is harmless since stored blocks never change.
+    private Block loadBlock(BlockChainNode blockChainNode) throws BlockChainException {
+        if (blockChainNode.block != null) {
+            return blockChainNode.block;
+        }
+        if (blockChainNode.pruned) {
+            throw new BlockChainException("blockChainGetBlock", "block has been pruned");
+        }
+        Block block = blockCache.get(blockChainNode.getHash());
+        if (block == null) {
+            block = blockStore.read(blockChainNode.getHash());
+            blockCache.put(blockChainNode.getHash(), block);
+        }
+        return block;
     }
 
-    public boolean isConfirmed(String blockHash) throws BlockChainException {
+    /**
+     * Returns the number of blocks on top of a block in the main chain, including the block itself
+     *
+     * @param blockHash the hash of the block
+     * @return the number of confirmations, or 0 if the block is not in the main chain
+     * @throws BlockChainException when the block does not exist
+     */
+    public int getConfirmations(Hash256 blockHash) throws BlockChainException {
         BlockChainNode blockChainNode = blockHashMap.get(blockHash);
         if (blockChainNode == null) {
-            throw new BlockChainException("blockChainIsInMain", "block does not exist");
+            throw new BlockChainException("blockChainGetConfirmations", "block does not exist");
         }
-        BlockChainNode currBlockNode = tails.last();
-        while (currBlockNode != head) {
-            if (currBlockNode.equals(blockChainNode)) {
-                if (currBlockNode.getBlockHeight() + Constants.blocksToWaitForConfirm <= size()) {
-                    return true;
-                }
-                else {
-                    return false;
-                }
-            }
-            currBlockNode = currBlockNode.getPrevNode();
+        if (!isInMainChain(blockChainNode)) {
+            return 0;
         }
-        return false;
+        return size() - blockChainNode.getBlockHeight() + 1;
+    }
+
+    public boolean isConfirmed(Hash256 blockHash) throws BlockChainException {
+        return getConfirmations(blockHash) > Constants.blocksToWaitForConfirm;
     }
 }
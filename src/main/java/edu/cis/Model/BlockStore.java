@@ -0,0 +1,314 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Append-only store of blocks on the local filesystem. Blocks are appended to numbered segment files, a new segment
+ * is started once the current one reaches the segment size, and blocks are read back through memory-mapped regions
+ * of the segments. The index from block hash to location is rebuilt from the segments when the store is opened.
+ *
+ * Each record is laid out as: the record length (int), the block header, the transaction count (int), the
+ * transaction hashes, then the transactions in the format of WireFormat. The header and transaction hashes come
+ * first, so a block can be indexed without decoding its transactions.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class BlockStore implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "blk";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static class BlockLocation {
+
+        private final int segment;
+        private final int offset;
+        private final int length;
+
+        public BlockLocation(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private Helper helper;
+
+    private File directory;
+    private int segmentSize;
+    private ArrayList<FileChannel> segments;
+    private ArrayList<MappedByteBuffer> mappings;
+    private HashMap<Hash256, BlockLocation> locations;
+    // Hashes of the stored blocks in the order they were appended, so every block comes after its parent
+    private ArrayList<Hash256> blockHashes;
+
+    public BlockStore(File directory) throws BlockChainException {
+        this(directory, Constants.blockSegmentSize);
+    }
+
+    /**
+     * Opens the store in a directory, creating the directory if needed, and indexes the blocks already stored
+     *
+     * @param directory the directory holding the segment files
+     * @param segmentSize the size in bytes after which a new segment file is started
+     * @throws BlockChainException when the segment files cannot be opened
+     */
+    public BlockStore(File directory, int segmentSize) throws BlockChainException {
+        this.helper = Helper.getInstance();
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+        this.mappings = new ArrayList<>();
+        this.locations = new HashMap<>();
+        this.blockHashes = new ArrayList<>();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new BlockChainException("blockStoreOpen", "cannot create directory " + directory);
+        }
+        try {
+            while (segmentFile(segments.size()).exists()) {
+                openSegment(segments.size());
+                indexSegment(segments.size() - 1);
+            }
+            if (segments.isEmpty()) {
+                openSegment(0);
+            }
+        }
+        catch (IOException e) {
+            throw new BlockChainException("blockStoreOpen", e.getMessage());
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean contains(Hash256 blockHash) {
+        return locations.containsKey(blockHash);
+    }
+
+    public int size() {
+        return blockHashes.size();
+    }
+
+    /**
+     * Returns the hashes of all stored blocks, in the order they were appended
+     *
+     * @return the block hashes
+     */
+    public List<Hash256> getBlockHashes() {
+        return Collections.unmodifiableList(blockHashes);
+    }
+
+    /**
+     * Appends a block to the last segment, the block is not forced to disk until flush or close is called
+     *
+     * @param block the block to be stored
+     * @throws BlockChainException when the block is already stored or cannot be written
+     */
+    public void append(Block block) throws BlockChainException {
+        if (locations.containsKey(block.getHash())) {
+            throw new BlockChainException("blockStoreAppend", "block already exists");
+        }
+        ByteBuffer record = encode(block);
+        try {
+            int segment = segments.size() - 1;
+            FileChannel channel = segments.get(segment);
+            if (channel.size() > 0 && channel.size() + record.remaining() > segmentSize) {
+                segment++;
+                openSegment(segment);
+                channel = segments.get(segment);
+            }
+            int offset = (int) channel.size();
+            int length = record.remaining();
+            channel.position(offset);
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            locations.put(block.getHash(), new BlockLocation(segment, offset, length));
+            blockHashes.add(block.getHash());
+        }
+        catch (IOException e) {
+            throw new BlockChainException("blockStoreAppend", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a block back from its segment
+     *
+     * @param blockHash the hash of the block
+     * @return the block
+     * @throws BlockChainException when the block is not stored or its record is corrupted
+     */
+    public Block read(Hash256 blockHash) throws BlockChainException {
+        ByteBuffer record = getRecord(blockHash);
+        Hash256 prevHash = Hash256.readFrom(record);
+        Hash256 merkleRoot = Hash256.readFrom(record);
+        long timestamp = record.getLong();
+        int nonce = record.getInt();
+        int transactionCount = record.getInt();
+        record.position(record.position() + transactionCount * Hash256.SIZE);
+
+        WireDecoder decoder = new WireDecoder(record);
+        Block block = new Block(prevHash);
+        for (int i = 0; i < transactionCount; i++) {
+            block.addTransaction(decoder.readTransaction(i == 0));
+        }
+        block.setProofOfWork(timestamp, nonce);
+        if (!block.getMerkleRoot().equals(merkleRoot) || !block.getHash().equals(blockHash)) {
+            throw new BlockChainException("blockStoreRead", "block record is corrupted");
+        }
+        return block;
+    }
+
+    /**
+     * Reads only the header of a stored block
+     *
+     * @param blockHash the hash of the block
+     * @return a read-only buffer holding the header
+     * @throws BlockChainException when the block is not stored
+     */
+    public ByteBuffer readHeader(Hash256 blockHash) throws BlockChainException {
+        ByteBuffer record = getRecord(blockHash);
+        record.limit(Block.HEADER_SIZE);
+        return record.slice();
+    }
+
+    /**
+     * Reads only the transaction hashes of a stored block, without decoding the transactions
+     *
+     * @param blockHash the hash of the block
+     * @return the transaction hashes, in the order of the block
+     * @throws BlockChainException when the block is not stored
+     */
+    public ArrayList<Hash256> readTransactionHashes(Hash256 blockHash) throws BlockChainException {
+        ByteBuffer record = getRecord(blockHash);
+        record.position(record.position() + Block.HEADER_SIZE);
+        int transactionCount = record.getInt();
+        ArrayList<Hash256> transactionHashes = new ArrayList<>(transactionCount);
+        for (int i = 0; i < transactionCount; i++) {
+            transactionHashes.add(Hash256.readFrom(record));
+        }
+        return transactionHashes;
+    }
+
+    /**
+     * Forces all appended blocks to disk
+     *
+     * @throws BlockChainException when the segment cannot be written
+     */
+    public void flush() throws BlockChainException {
+        try {
+            segments.get(segments.size() - 1).force(false);
+        }
+        catch (IOException e) {
+            throw new BlockChainException("blockStoreFlush", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.get(segments.size() - 1).force(false);
+        for (FileChannel channel : segments) {
+            channel.close();
+        }
+        mappings.clear();
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private void openSegment(int segment) throws IOException {
+        FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.add(channel);
+        mappings.add(null);
+    }
+
+    // Indexes the records of a segment, and cuts off a record left incomplete by a crash during an append
+    private void indexSegment(int segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        ByteBuffer mapping = getMapping(segment, (int) channel.size());
+        int offset = 0;
+        while (offset + 4 <= mapping.limit()) {
+            int length = mapping.getInt(offset) + 4;
+            if (length < 4 + Block.HEADER_SIZE || offset + length > mapping.limit()) {
+                break;
+            }
+            ByteBuffer header = mapping.duplicate();
+            header.position(offset + 4);
+            header.limit(offset + 4 + Block.HEADER_SIZE);
+            Hash256 blockHash = Hash256.wrap(helper.getCryptoEngine().sha256d(header));
+            locations.put(blockHash, new BlockLocation(segment, offset, length));
+            blockHashes.add(blockHash);
+            offset += length;
+        }
+        if (offset < channel.size()) {
+            channel.truncate(offset);
+            mappings.set(segment, null);
+        }
+    }
+
+    // Returns a read-only mapping of a segment covering at least the given size, remapping when the segment has grown.
+    // Synchronized since blocks may be read from several threads.
+    private synchronized MappedByteBuffer getMapping(int segment, int size) throws IOException {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping == null || mapping.capacity() < size) {
+            FileChannel channel = segments.get(segment);
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mappings.set(segment, mapping);
+        }
+        return mapping;
+    }
+
+    // Returns a buffer positioned at the header of a block's record
+    private ByteBuffer getRecord(Hash256 blockHash) throws BlockChainException {
+        BlockLocation location = locations.get(blockHash);
+        if (location == null) {
+            throw new BlockChainException("blockStoreRead", "block does not exist");
+        }
+        try {
+            ByteBuffer mapping = getMapping(location.segment, location.offset + location.length).duplicate();
+            mapping.position(location.offset + 4);
+            mapping.limit(location.offset + location.length);
+            return mapping.slice();
+        }
+        catch (IOException e) {
+            throw new BlockChainException("blockStoreRead", e.getMessage());
+        }
+    }
+
+    private ByteBuffer encode(Block block) {
+        ArrayList<Transaction> transactions = block.getAllTransactions();
+        int size = 4 + Block.HEADER_SIZE + 4;
+        for (Transaction transaction : transactions) {
+            size += Hash256.SIZE + WireFormat.getTransactionSize(transaction);
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(size - 4);
+        block.writeTo(record);
+        record.putInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            transaction.getHash().writeTo(record);
+        }
+        for (Transaction transaction : transactions) {
+            WireFormat.writeTransaction(record, transaction);
+        }
+        record.flip();
+        return record;
+    }
+}
@@ -0,0 +1,33 @@
+package edu.cis.Model;
+
+import java.util.ArrayList;
+
+/**
+ * Undo record of a block, holding the outputs the block spent, so the block can be disconnected from a UTXO set
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class BlockUndo {
+
+    private ArrayList<OutPoint> spentOutPoints;
+    private ArrayList<TxOutput> spentOutputs;
+
+    public BlockUndo() {
+        this.spentOutPoints = new ArrayList<>();
+        this.spentOutputs = new ArrayList<>();
+    }
+
+    public void addSpent(OutPoint outPoint, TxOutput output) {
+        spentOutPoints.add(outPoint);
+        spentOutputs.add(output);
+    }
+
+    public ArrayList<OutPoint> getSpentOutPoints() {
+        return spentOutPoints;
+    }
+
+    public ArrayList<TxOutput> getSpentOutputs() {
+        return spentOutputs;
+    }
+}
@@ -1,16 +1,76 @@
 package edu.cis.Model;
 
+import edu.cis.Utils.Hash256;
 import edu.cis.Utils.Helper;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for objects that can be turned into bytes (and hence hashed). Subclasses write themselves straight into
+ * a buffer, so a caller can serialize or hash an object through one reused buffer without temporary arrays.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
 public abstract class Byteable {
-    public abstract byte[] getBytes();
+
+    // Cached hash of the object, cleared by subclasses whenever their bytes change
+    private volatile Hash256 hash;
+
+    /**
+     * Returns the exact number of bytes written by writeTo
+     *
+     * @return the size of the object in bytes
+     */
+    public abstract int getByteSize();
+
+    /**
+     * Writes the bytes of the object into a buffer, starting at the current position of the buffer
+     *
+     * @param buffer the buffer to write into, with at least getByteSize() bytes remaining
+     */
+    public abstract void writeTo(ByteBuffer buffer);
+
+    public byte[] getBytes() {
+        byte[] bytes = new byte[getByteSize()];
+        writeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Returns the hash of the object, which is only computed the first time it is requested
+     *
+     * @return the hash of the object
+     */
+    public Hash256 getHash() {
+        Hash256 currHash = hash;
+        if (currHash == null) {
+            currHash = Helper.getInstance().computeHash(this);
+            hash = currHash;
+        }
+        return currHash;
+    }
+
+    /**
+     * Clears the cached hash, must be called by subclasses whenever a field that is written by writeTo changes
+     */
+    protected void invalidateHash() {
+        hash = null;
+    }
 
     @Override
     public boolean equals(Object obj) {
-        Helper helper = Helper.getInstance();
+        if (this == obj) {
+            return true;
+        }
         if (obj instanceof Byteable) {
-            return helper.getHash(this).equals(helper.getHash((Byteable) obj));
+            return getHash().equals(((Byteable) obj).getHash());
         }
-        return super.equals(obj);
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return getHash().hashCode();
     }
 }
@@ -0,0 +1,178 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+import org.bouncycastle.crypto.macs.SipHash;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Block relayed as its header, a 6 byte short id for each transaction the receiver probably has in its transaction
+ * pool, and the full transactions it probably does not have (always including the coinbase). The receiver rebuilds
+ * the block from its pool and only requests the transactions it could not find.
+ *
+ * Short ids are the lowest 48 bits of SipHash-2-4 over the transaction hash, keyed with the SHA256 of the header and
+ * a random salt, so ids cannot be made to collide ahead of time. A collision in the receiver's pool at worst produces
+ * a block whose merkle root does not match, after which the full block is requested.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class CompactBlock {
+
+    public static final int SHORT_ID_SIZE = 6;
+    private static final long SHORT_ID_MASK = (1L << (8 * SHORT_ID_SIZE)) - 1;
+
+    private Helper helper;
+
+    private final byte[] header;
+    private final Hash256 blockHash;
+    private final int transactionCount;
+    // Short ids of the transactions which are not prefilled, in block order
+    private final long[] shortIds;
+    // Full transactions by position in the block
+    private final TreeMap<Integer, Transaction> prefilled;
+    private final byte[] sipHashKey;
+
+    private CompactBlock(byte[] header, Hash256 blockHash, long salt, int transactionCount, long[] shortIds,
+                         TreeMap<Integer, Transaction> prefilled) {
+        this.helper = Helper.getInstance();
+        this.header = header;
+        this.blockHash = blockHash;
+        this.transactionCount = transactionCount;
+        this.shortIds = shortIds;
+        this.prefilled = prefilled;
+        ByteBuffer keyInput = ByteBuffer.allocate(Block.HEADER_SIZE + 8);
+        keyInput.put(header).putLong(salt);
+        this.sipHashKey = Arrays.copyOf(helper.SHA256(keyInput.array()), 16);
+    }
+
+    /**
+     * Creates the compact form of a block
+     *
+     * @param block the block
+     * @param salt the random salt of the short ids
+     * @param prefill hashes of the transactions which are sent in full besides the coinbase
+     * @return the compact block
+     */
+    public static CompactBlock fromBlock(Block block, long salt, Set<Hash256> prefill) {
+        ArrayList<Transaction> transactions = block.getAllTransactions();
+        TreeMap<Integer, Transaction> prefilled = new TreeMap<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            if (i == 0 || prefill.contains(transactions.get(i).getHash())) {
+                prefilled.put(i, transactions.get(i));
+            }
+        }
+        CompactBlock compactBlock = new CompactBlock(block.getBytes(), block.getHash(), salt, transactions.size(),
+                                                     new long[transactions.size() - prefilled.size()], prefilled);
+        int next = 0;
+        for (int i = 0; i < transactions.size(); i++) {
+            if (!prefilled.containsKey(i)) {
+                compactBlock.shortIds[next++] = compactBlock.getShortId(transactions.get(i).getHash());
+            }
+        }
+        return compactBlock;
+    }
+
+    public Hash256 getBlockHash() {
+        return blockHash;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Returns the size of the compact block as a message: the header, the salt, the short ids, and the prefilled
+     * transactions with their positions
+     *
+     * @return the size in bytes
+     */
+    public int getSize() {
+        int size = 2 + Block.HEADER_SIZE + 8 + WireFormat.getVarIntSize(shortIds.length)
+                + shortIds.length * SHORT_ID_SIZE + WireFormat.getVarIntSize(prefilled.size());
+        for (Integer position : prefilled.keySet()) {
+            size += WireFormat.getVarIntSize(position) + WireFormat.getTransactionSize(prefilled.get(position));
+        }
+        return size;
+    }
+
+    public long getShortId(Hash256 transactionHash) {
+        SipHash sipHash = new SipHash();
+        sipHash.init(new KeyParameter(sipHashKey));
+        sipHash.update(transactionHash.getBytes(), 0, Hash256.SIZE);
+        return sipHash.doFinal() & SHORT_ID_MASK;
+    }
+
+    /**
+     * Fills in the transactions of the block from the prefilled transactions and a transaction pool. Short ids
+     * matching several pool transactions are left empty.
+     *
+     * @param mempool the pool of the receiving node
+     * @return the transactions by position in the block, null where the transaction was not found
+     */
+    public Transaction[] match(Mempool mempool) {
+        HashMap<Long, Transaction> byShortId = new HashMap<>();
+        for (Mempool.Entry entry : mempool.getEntriesByFeeRate()) {
+            Transaction transaction = entry.getTransaction();
+            long shortId = getShortId(transaction.getHash());
+            // A collision stores null, so the position is requested instead of guessed
+            byShortId.put(shortId, byShortId.containsKey(shortId) ? null : transaction);
+        }
+        Transaction[] transactions = new Transaction[transactionCount];
+        int next = 0;
+        for (int i = 0; i < transactionCount; i++) {
+            Transaction transaction = prefilled.get(i);
+            transactions[i] = transaction != null ? transaction : byShortId.get(shortIds[next++]);
+        }
+        return transactions;
+    }
+
+    /**
+     * Returns the positions left empty by match
+     *
+     * @param transactions the transactions by position in the block
+     * @return the positions to be requested from the sender
+     */
+    public static ArrayList<Integer> getMissing(Transaction[] transactions) {
+        ArrayList<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Builds the block once every transaction has been found
+     *
+     * @param transactions the transactions by position in the block
+     * @return the block
+     * @throws BlockChainException when a transaction is missing, or the transactions do not match the header (ie.
+     * because of a short id collision)
+     */
+    public Block toBlock(Transaction[] transactions) throws BlockChainException {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        Hash256 prevHash = Hash256.readFrom(buffer);
+        Hash256 merkleRoot = Hash256.readFrom(buffer);
+        Block block = new Block(prevHash);
+        for (Transaction transaction : transactions) {
+            if (transaction == null) {
+                throw new BlockChainException("compactBlockRebuild", "transaction is missing");
+            }
+            block.addTransaction(transaction);
+        }
+        block.setProofOfWork(buffer.getLong(), buffer.getInt());
+        if (!block.getMerkleRoot().equals(merkleRoot) || !block.getHash().equals(blockHash)) {
+            throw new BlockChainException("compactBlockRebuild", "transactions do not match the header");
+        }
+        return block;
+    }
+}
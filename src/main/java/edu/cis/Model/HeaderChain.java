@@ -0,0 +1,246 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Headers of every known block, packed one after another in a single array and kept apart from the block bodies.
+ * Each entry holds the 76 byte header, its hash (computed once when the header is added), the entry of the previous
+ * block, the height and a skip pointer, so the tree of headers can be walked, and proof of work checked, without
+ * touching any transactions. Entries are numbered in the order they were added and are never removed.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class HeaderChain {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int PREV_HASH_OFFSET = 0;
+    private static final int MERKLE_ROOT_OFFSET = Hash256.SIZE;
+    private static final int TIMESTAMP_OFFSET = 2 * Hash256.SIZE;
+    private static final int NONCE_OFFSET = TIMESTAMP_OFFSET + 8;
+
+    private Helper helper;
+
+    private ByteBuffer headers;
+    private Hash256[] hashes;
+    private int[] prevIndexes;
+    private int[] heights;
+    // Entry of the ancestor at getSkipHeight(height), lets getAncestor jump back in O(log n) steps
+    private int[] skipIndexes;
+    private int size;
+
+    public HeaderChain() {
+        this.helper = Helper.getInstance();
+        this.headers = ByteBuffer.allocate(INITIAL_CAPACITY * Block.HEADER_SIZE);
+        this.hashes = new Hash256[INITIAL_CAPACITY];
+        this.prevIndexes = new int[INITIAL_CAPACITY];
+        this.heights = new int[INITIAL_CAPACITY];
+        this.skipIndexes = new int[INITIAL_CAPACITY];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the header of a block, reusing the hash already computed by the block
+     *
+     * @param block the block
+     * @param prevIndex the entry of the previous block, or -1 for the first block
+     * @return the entry of the header
+     */
+    public int add(Block block, int prevIndex) {
+        ensureCapacity();
+        headers.position(size * Block.HEADER_SIZE);
+        block.writeTo(headers);
+        return addEntry(block.getHash(), prevIndex);
+    }
+
+    /**
+     * Adds a serialized header, the header is hashed once here
+     *
+     * @param header a buffer positioned at the header, its position is moved past the header
+     * @param prevIndex the entry of the previous block, or -1 for the first block
+     * @return the entry of the header
+     */
+    public int add(ByteBuffer header, int prevIndex) {
+        ensureCapacity();
+        ByteBuffer source = header.duplicate();
+        source.limit(source.position() + Block.HEADER_SIZE);
+        header.position(source.limit());
+        headers.position(size * Block.HEADER_SIZE);
+        headers.put(source);
+        ByteBuffer stored = headers.duplicate();
+        stored.position(size * Block.HEADER_SIZE);
+        stored.limit(stored.position() + Block.HEADER_SIZE);
+        return addEntry(Hash256.wrap(helper.getCryptoEngine().sha256d(stored)), prevIndex);
+    }
+
+    public Hash256 getHash(int index) {
+        checkIndex(index);
+        return hashes[index];
+    }
+
+    public Hash256 getPrevHash(int index) {
+        return readHash(index, PREV_HASH_OFFSET);
+    }
+
+    public Hash256 getMerkleRoot(int index) {
+        return readHash(index, MERKLE_ROOT_OFFSET);
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return headers.getLong(index * Block.HEADER_SIZE + TIMESTAMP_OFFSET);
+    }
+
+    public int getNonce(int index) {
+        checkIndex(index);
+        return headers.getInt(index * Block.HEADER_SIZE + NONCE_OFFSET);
+    }
+
+    /**
+     * Returns the entry of the previous block
+     *
+     * @param index the entry of the block
+     * @return the entry of the previous block, or -1 for the first block
+     */
+    public int getPrevIndex(int index) {
+        checkIndex(index);
+        return prevIndexes[index];
+    }
+
+    public int getHeight(int index) {
+        checkIndex(index);
+        return heights[index];
+    }
+
+    /**
+     * Returns the ancestor of an entry at a height, following skip pointers where they do not overshoot
+     *
+     * @param index the entry of the block
+     * @param height the height of the ancestor
+     * @return the entry of the ancestor, or -1 if the height is above the block or negative
+     */
+    public int getAncestor(int index, int height) {
+        checkIndex(index);
+        if (height > heights[index] || height < 0) {
+            return -1;
+        }
+        while (heights[index] > height) {
+            int skipHeight = getSkipHeight(heights[index]);
+            int prevSkipHeight = getSkipHeight(heights[index] - 1);
+            // Only take the skip when the previous entry's skip would not get closer to the target
+            if (skipIndexes[index] >= 0 && (skipHeight == height || (skipHeight > height
+                    && !(prevSkipHeight < skipHeight - 2 && prevSkipHeight >= height)))) {
+                index = skipIndexes[index];
+            }
+            else {
+                index = prevIndexes[index];
+            }
+        }
+        return index;
+    }
+
+    public byte[] getHeader(int index) {
+        checkIndex(index);
+        byte[] header = new byte[Block.HEADER_SIZE];
+        ByteBuffer source = headers.duplicate();
+        source.position(index * Block.HEADER_SIZE);
+        source.get(header);
+        return header;
+    }
+
+    /**
+     * Writes a header into a buffer, without copying it to an intermediate array
+     *
+     * @param index the entry of the header
+     * @param buffer the buffer to write into
+     */
+    public void writeHeader(int index, ByteBuffer buffer) {
+        checkIndex(index);
+        ByteBuffer source = headers.duplicate();
+        source.position(index * Block.HEADER_SIZE);
+        source.limit(source.position() + Block.HEADER_SIZE);
+        buffer.put(source);
+    }
+
+    /**
+     * Checks the proof of work of a header against its cached hash
+     *
+     * @param index the entry of the header
+     * @param difficulty the number of leading zero hex digits required
+     * @return a boolean representing whether the header meets the difficulty
+     */
+    public boolean meetsDifficulty(int index, int difficulty) {
+        checkIndex(index);
+        return helper.meetsDifficulty(hashes[index].getBytes(), difficulty);
+    }
+
+    private int addEntry(Hash256 hash, int prevIndex) {
+        if (prevIndex >= size) {
+            throw new IndexOutOfBoundsException("previous header " + prevIndex + " does not exist");
+        }
+        hashes[size] = hash;
+        prevIndexes[size] = prevIndex;
+        if (prevIndex < 0) {
+            heights[size] = 0;
+            skipIndexes[size] = -1;
+        }
+        else {
+            heights[size] = heights[prevIndex] + 1;
+            skipIndexes[size] = getAncestor(prevIndex, getSkipHeight(heights[size]));
+        }
+        return size++;
+    }
+
+    private Hash256 readHash(int index, int offset) {
+        checkIndex(index);
+        byte[] hash = new byte[Hash256.SIZE];
+        ByteBuffer source = headers.duplicate();
+        source.position(index * Block.HEADER_SIZE + offset);
+        source.get(hash);
+        return Hash256.wrap(hash);
+    }
+
+    // Clears the lowest set bit of a number
+    private static int invertLowestOne(int number) {
+        return number & (number - 1);
+    }
+
+    // Height the skip pointer of an entry at a height points to, spread so any ancestor is reached in O(log n) steps
+    private static int getSkipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+        return (height & 1) == 1 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("header " + index + " does not exist");
+        }
+    }
+
+    // Doubles the arrays once they are full
+    private void ensureCapacity() {
+        if (size < prevIndexes.length) {
+            return;
+        }
+        int capacity = prevIndexes.length * 2;
+        ByteBuffer newHeaders = ByteBuffer.allocate(capacity * Block.HEADER_SIZE);
+        ByteBuffer oldHeaders = headers.duplicate();
+        oldHeaders.clear();
+        newHeaders.put(oldHeaders);
+        headers = newHeaders;
+        hashes = Arrays.copyOf(hashes, capacity);
+        prevIndexes = Arrays.copyOf(prevIndexes, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        skipIndexes = Arrays.copyOf(skipIndexes, capacity);
+    }
+}
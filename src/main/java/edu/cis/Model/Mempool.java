@@ -0,0 +1,228 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Pool of validated transactions waiting to be included in a block. Transactions are indexed by hash, every output
+ * they spend is indexed to the spending transaction so conflicts are found with one lookup, and the pool is kept
+ * ordered by fee rate for building blocks. Adding or removing a transaction costs O(inputs + outputs) map updates and
+ * an O(log n) update of the ordering.
+ *
+ * Pool transactions may spend outputs of other pool transactions, removing a transaction because of a conflict also
+ * removes the transactions depending on it.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class Mempool {
+
+    /**
+     * A pool transaction with the fee it pays and its size in the wire format
+     */
+    public static final class Entry {
+
+        private final Transaction transaction;
+        private final long fee;
+        private final int size;
+        // Order of arrival, breaks ties between equal fee rates so earlier transactions come first
+        private final long sequence;
+
+        private Entry(Transaction transaction, long fee, int size, long sequence) {
+            this.transaction = transaction;
+            this.fee = fee;
+            this.size = size;
+            this.sequence = sequence;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public long getFee() {
+            return fee;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public double getFeeRate() {
+            return (double) fee / size;
+        }
+    }
+
+    // Highest fee rate first, comparing fee / size without rounding
+    private static final Comparator<Entry> FEE_RATE_ORDER = (a, b) -> {
+        int compare = Long.compare(b.fee * a.size, a.fee * b.size);
+        return compare != 0 ? compare : Long.compare(a.sequence, b.sequence);
+    };
+
+    private HashMap<Hash256, Entry> entries;
+    private HashMap<OutPoint, Transaction> spenders;
+    private TreeSet<Entry> byFeeRate;
+    private long nextSequence;
+
+    public Mempool() {
+        this.entries = new HashMap<>();
+        this.spenders = new HashMap<>();
+        this.byFeeRate = new TreeSet<>(FEE_RATE_ORDER);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(Hash256 transactionHash) {
+        return entries.containsKey(transactionHash);
+    }
+
+    /**
+     * Returns a pool transaction
+     *
+     * @param transactionHash the hash of the transaction
+     * @return the transaction, or null if it is not in the pool
+     */
+    public Transaction get(Hash256 transactionHash) {
+        Entry entry = entries.get(transactionHash);
+        return entry == null ? null : entry.transaction;
+    }
+
+    public Entry getEntry(Hash256 transactionHash) {
+        return entries.get(transactionHash);
+    }
+
+    /**
+     * Returns the pool transaction spending an output
+     *
+     * @param outPoint the out point of the output
+     * @return the spending transaction, or null if no pool transaction spends the output
+     */
+    public Transaction getSpender(OutPoint outPoint) {
+        return spenders.get(outPoint);
+    }
+
+    /**
+     * Returns an output created by a pool transaction, whether or not it is spent by another pool transaction
+     *
+     * @param outPoint the out point of the output
+     * @return the output, or null if no pool transaction created it
+     */
+    public TxOutput getOutput(OutPoint outPoint) {
+        Entry entry = entries.get(outPoint.getTxHash());
+        if (entry == null || outPoint.getOutputIndex() < 0
+                || outPoint.getOutputIndex() >= entry.transaction.getOutputs().size()) {
+            return null;
+        }
+        return entry.transaction.getOutputs().get(outPoint.getOutputIndex());
+    }
+
+    /**
+     * Returns the pool transactions from the highest fee rate to the lowest
+     *
+     * @return a read-only view of the entries, which changes along with the pool
+     */
+    public NavigableSet<Entry> getEntriesByFeeRate() {
+        return Collections.unmodifiableNavigableSet(byFeeRate);
+    }
+
+    /**
+     * Adds a transaction which has already been validated against the UTXO set and the pool
+     *
+     * @param transaction the transaction
+     * @param fee the total input amount minus the total output amount
+     * @throws BlockChainException when the transaction is already in the pool, or spends an output already spent by
+     * a pool transaction
+     */
+    public void add(Transaction transaction, long fee) throws BlockChainException {
+        Hash256 transactionHash = transaction.getHash();
+        if (entries.containsKey(transactionHash)) {
+            throw new BlockChainException("mempoolAdd", "transaction already exists");
+        }
+        for (TxInput input : transaction.getInputs()) {
+            if (spenders.containsKey(input.getOutPoint())) {
+                throw new BlockChainException("mempoolAdd", "input is already spent in the pool");
+            }
+        }
+        Entry entry = new Entry(transaction, fee, WireFormat.getTransactionSize(transaction), nextSequence++);
+        entries.put(transactionHash, entry);
+        for (TxInput input : transaction.getInputs()) {
+            spenders.put(input.getOutPoint(), transaction);
+        }
+        byFeeRate.add(entry);
+    }
+
+    /**
+     * Removes a transaction, leaving the transactions spending its outputs in the pool (ie. when it has been included
+     * in a block, so its outputs now exist in the UTXO set)
+     *
+     * @param transactionHash the hash of the transaction
+     * @return the removed transaction, or null if it was not in the pool
+     */
+    public Transaction remove(Hash256 transactionHash) {
+        Entry entry = entries.remove(transactionHash);
+        if (entry == null) {
+            return null;
+        }
+        for (TxInput input : entry.transaction.getInputs()) {
+            spenders.remove(input.getOutPoint());
+        }
+        byFeeRate.remove(entry);
+        return entry.transaction;
+    }
+
+    /**
+     * Removes a transaction along with every pool transaction spending its outputs, directly or indirectly
+     *
+     * @param transactionHash the hash of the transaction
+     * @return the removed transactions, empty if the transaction was not in the pool
+     */
+    public ArrayList<Transaction> removeWithDescendants(Hash256 transactionHash) {
+        ArrayList<Transaction> removed = new ArrayList<>();
+        ArrayList<Hash256> toRemove = new ArrayList<>();
+        toRemove.add(transactionHash);
+        while (!toRemove.isEmpty()) {
+            Transaction transaction = remove(toRemove.remove(toRemove.size() - 1));
+            if (transaction == null) {
+                continue;
+            }
+            removed.add(transaction);
+            for (int i = 0; i < transaction.getOutputs().size(); i++) {
+                Transaction spender = spenders.get(new OutPoint(transaction.getHash(), i));
+                if (spender != null) {
+                    toRemove.add(spender.getHash());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the transactions included in a block, and the pool transactions conflicting with the block (spending
+     * an output the block also spends) along with their descendants
+     *
+     * @param block the block added to the main chain
+     * @return the transactions removed because of conflicts
+     */
+    public ArrayList<Transaction> removeForBlock(Block block) {
+        ArrayList<Transaction> conflicts = new ArrayList<>();
+        for (Transaction transaction : block.getAllTransactions()) {
+            if (remove(transaction.getHash()) != null) {
+                continue;
+            }
+            for (TxInput input : transaction.getInputs()) {
+                Transaction spender = spenders.get(input.getOutPoint());
+                if (spender != null) {
+                    conflicts.addAll(removeWithDescendants(spender.getHash()));
+                }
+            }
+        }
+        return conflicts;
+    }
+}
@@ -0,0 +1,38 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+
+import java.util.ArrayList;
+
+/**
+ * Proof that a transaction is included in a block, made of the hashes needed to rebuild the merkle root from the
+ * transaction hash. The position of the transaction and the number of transactions in the block determine at which
+ * levels a sibling hash is used, and on which side.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class MerkleProof {
+
+    private int index;
+    private int transactionCount;
+    private ArrayList<Hash256> siblings;
+
+    public MerkleProof(int index, int transactionCount, ArrayList<Hash256> siblings) {
+        this.index = index;
+        this.transactionCount = transactionCount;
+        this.siblings = siblings;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    public ArrayList<Hash256> getSiblings() {
+        return siblings;
+    }
+}
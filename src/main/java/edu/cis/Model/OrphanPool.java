@@ -0,0 +1,161 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Pool of blocks which arrived before their parent. Orphans are indexed by hash and by the hash of the missing
+ * parent, so when a block connects, the orphans waiting for it are found with one lookup instead of a scan of the
+ * pool.
+ *
+ * The pool is bounded by the total size of its blocks in the wire format. Orphans older than a maximum age are
+ * dropped whenever a block is added, and the oldest orphans are evicted while the pool is over its size.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class OrphanPool {
+
+    /**
+     * An orphan with its size in the wire format and the time it arrived
+     */
+    private static final class Entry {
+
+        private final Block block;
+        private final int size;
+        private final long receivedMillis;
+
+        private Entry(Block block, int size, long receivedMillis) {
+            this.block = block;
+            this.size = size;
+            this.receivedMillis = receivedMillis;
+        }
+    }
+
+    private final int maxSize;
+    private final long maxAgeMillis;
+
+    // Orphans in order of arrival, so the oldest is always first
+    private LinkedHashMap<Hash256, Entry> entries;
+    // Orphans indexed by the hash of their missing parent
+    private HashMap<Hash256, ArrayList<Block>> byPrevHash;
+    private int totalSize;
+
+    /**
+     * Creates an empty pool
+     *
+     * @param maxSize the maximum total size of the orphans in the wire format
+     * @param maxAgeMillis the time after which an orphan is dropped
+     */
+    public OrphanPool(int maxSize, long maxAgeMillis) {
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<>();
+        this.byPrevHash = new HashMap<>();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    public boolean contains(Hash256 blockHash) {
+        return entries.containsKey(blockHash);
+    }
+
+    /**
+     * Adds a block whose parent is unknown, after dropping expired orphans. The oldest orphans are evicted if the
+     * pool grows over its size.
+     *
+     * @param block the orphan block
+     * @return a boolean representing whether the block was added, false if it is already in the pool or larger than
+     * the whole pool
+     */
+    public boolean add(Block block) {
+        long now = System.currentTimeMillis();
+        removeExpired(now);
+        int size = WireFormat.getBlockSize(block);
+        if (entries.containsKey(block.getHash()) || size > maxSize) {
+            return false;
+        }
+        entries.put(block.getHash(), new Entry(block, size, now));
+        byPrevHash.computeIfAbsent(block.getPrevHash(), hash -> new ArrayList<>()).add(block);
+        totalSize += size;
+        while (totalSize > maxSize) {
+            remove(entries.values().iterator().next().block);
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the orphans waiting for a block, ie. once the block has connected
+     *
+     * @param blockHash the hash of the parent block
+     * @return the orphans whose parent is the block, in order of arrival
+     */
+    public ArrayList<Block> removeChildren(Hash256 blockHash) {
+        ArrayList<Block> children = byPrevHash.remove(blockHash);
+        if (children == null) {
+            return new ArrayList<>();
+        }
+        for (Block child : children) {
+            totalSize -= entries.remove(child.getHash()).size;
+        }
+        return children;
+    }
+
+    /**
+     * Removes every orphan descending from a block, ie. once the block has turned out to be invalid
+     *
+     * @param blockHash the hash of the block
+     */
+    public void removeDescendants(Hash256 blockHash) {
+        ArrayDeque<Hash256> parents = new ArrayDeque<>();
+        parents.add(blockHash);
+        while (!parents.isEmpty()) {
+            for (Block child : removeChildren(parents.poll())) {
+                parents.add(child.getHash());
+            }
+        }
+    }
+
+    /**
+     * Drops the orphans older than the maximum age
+     *
+     * @param now the current time in milliseconds
+     */
+    public void removeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.receivedMillis <= maxAgeMillis) {
+                // Later entries arrived later, so they have not expired either
+                return;
+            }
+            iterator.remove();
+            removeFromParent(entry.block);
+            totalSize -= entry.size;
+        }
+    }
+
+    private void remove(Block block) {
+        totalSize -= entries.remove(block.getHash()).size;
+        removeFromParent(block);
+    }
+
+    private void removeFromParent(Block block) {
+        ArrayList<Block> siblings = byPrevHash.get(block.getPrevHash());
+        siblings.remove(block);
+        if (siblings.isEmpty()) {
+            byPrevHash.remove(block.getPrevHash());
+        }
+    }
+}
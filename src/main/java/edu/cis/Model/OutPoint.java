@@ -0,0 +1,50 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+
+/**
+ * Reference to a single transaction output, made of the hash of the transaction and the index of the output
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public final class OutPoint {
+
+    private final Hash256 txHash;
+    private final int outputIndex;
+
+    public OutPoint(Hash256 txHash, int outputIndex) {
+        this.txHash = txHash;
+        this.outputIndex = outputIndex;
+    }
+
+    public Hash256 getTxHash() {
+        return txHash;
+    }
+
+    public int getOutputIndex() {
+        return outputIndex;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof OutPoint) {
+            OutPoint other = (OutPoint) obj;
+            return outputIndex == other.outputIndex && txHash.equals(other.txHash);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return txHash.hashCode() * 31 + outputIndex;
+    }
+
+    @Override
+    public String toString() {
+        return txHash + ":" + outputIndex;
+    }
+}
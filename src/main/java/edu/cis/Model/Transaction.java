@@ -2,6 +2,7 @@ package edu.cis.Model;
 
 import edu.cis.Utils.Helper;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -40,14 +41,24 @@ public class Transaction extends Byteable {
     }
 
     @Override
-    public byte[] getBytes() {
-        byte[][] byteArrays = new byte[inputs.size() + outputs.size()][];
-        for (int i = 0; i < inputs.size(); i++) {
-            byteArrays[i] = inputs.get(i).getBytes();
+    public int getByteSize() {
+        int size = 0;
+        for (TxInput input : inputs) {
+            size += input.getByteSize();
         }
-        for (int i = 0; i < outputs.size(); i++) {
-            byteArrays[i + inputs.size()] = outputs.get(i).getBytes();
+        for (TxOutput output : outputs) {
+            size += output.getByteSize();
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        for (TxInput input : inputs) {
+            input.writeTo(buffer);
+        }
+        for (TxOutput output : outputs) {
+            output.writeTo(buffer);
         }
-        return helper.combineByteArrays(byteArrays);
     }
 }
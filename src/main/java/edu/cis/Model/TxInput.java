@@ -1,8 +1,9 @@
 package edu.cis.Model;
 
+import edu.cis.Utils.Hash256;
 import edu.cis.Utils.Helper;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 
 /**
@@ -15,27 +16,31 @@ public class TxInput extends Byteable {
 
     private Helper helper;
 
-    private String txHash;
+    private Hash256 txHash;
     private int outputIndex;
     private String signature;
     private PublicKey publicKey;
+    private byte[] encodedPublicKey;
+    private OutPoint outPoint;
 
-    public TxInput(String txHash, int outputIndex, String signature, PublicKey publicKey) {
+    public TxInput(Hash256 txHash, int outputIndex, String signature, PublicKey publicKey) {
         this.helper = Helper.getInstance();
         this.txHash = txHash;
         this.outputIndex = outputIndex;
         this.signature = signature;
         this.publicKey = publicKey;
+        // getEncoded returns a new copy on every call, so keep one for serialization
+        this.encodedPublicKey = publicKey == null ? null : publicKey.getEncoded();
+        this.outPoint = new OutPoint(txHash, outputIndex);
     }
 
     public static TxInput coinBaseInput() {
-        TxInput coinBaseInput = new TxInput(Helper.getInstance().byteToHex(new byte[32]),
-                                            -1, null, null);
+        TxInput coinBaseInput = new TxInput(Hash256.ZERO, -1, null, null);
         return coinBaseInput;
     }
 
     public static boolean isCoinBaseInput(TxInput input) {
-        if (input.getTxHash().equals(Helper.getInstance().byteToHex(new byte[32]))) {
+        if (input.getTxHash().equals(Hash256.ZERO)) {
             if (input.getOutputIndex() == -1) {
                 return true;
             }
@@ -43,7 +48,7 @@ public class TxInput extends Byteable {
         return false;
     }
 
-    public String getTxHash() {
+    public Hash256 getTxHash() {
         return txHash;
     }
 
@@ -51,6 +56,15 @@ public class TxInput extends Byteable {
         return outputIndex;
     }
 
+    /**
+     * Returns the out point of the output spent by this input
+     *
+     * @return the out point referenced by the input
+     */
+    public OutPoint getOutPoint() {
+        return outPoint;
+    }
+
     public String getSignature() {
         return signature;
     }
@@ -60,14 +74,20 @@ public class TxInput extends Byteable {
     }
 
     @Override
-    public byte[] getBytes() {
+    public int getByteSize() {
         if (TxInput.isCoinBaseInput(this)) {
-            return helper.combineByteArrays(helper.hexToByte(txHash),
-                                            helper.numToByte(BigInteger.valueOf(outputIndex), 4));
+            return Hash256.SIZE + 4;
+        }
+        return Hash256.SIZE + 4 + signature.length() / 2 + encodedPublicKey.length;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        txHash.writeTo(buffer);
+        buffer.putInt(outputIndex);
+        if (!TxInput.isCoinBaseInput(this)) {
+            helper.putHex(buffer, signature);
+            buffer.put(encodedPublicKey);
         }
-        return helper.combineByteArrays(helper.hexToByte(txHash),
-                                        helper.numToByte(BigInteger.valueOf(outputIndex), 4),
-                                        helper.hexToByte(signature),
-                                        publicKey.getEncoded());
     }
 }
@@ -2,7 +2,7 @@ package edu.cis.Model;
 
 import edu.cis.Utils.Helper;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 /**
  * Class that represents a transaction output in a transaction
@@ -32,8 +32,13 @@ public class TxOutput extends Byteable {
     }
 
     @Override
-    public byte[] getBytes() {
-        return helper.combineByteArrays(helper.numToByte(BigInteger.valueOf(amount), 8),
-                                        helper.hexToByte(hexAddr));
+    public int getByteSize() {
+        return 8 + hexAddr.length() / 2;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(amount);
+        helper.putHex(buffer, hexAddr);
     }
 }
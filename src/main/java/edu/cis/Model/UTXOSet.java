@@ -0,0 +1,115 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.PersistentHashMap;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable set of unspent transaction outputs, indexed by out point. Connecting or disconnecting a block returns a
+ * new set, which shares everything the block did not change with this one, so the set of every block can be derived
+ * from its parent's in O(changes) and read from several threads at once.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class UTXOSet {
+
+    private final PersistentHashMap<OutPoint, TxOutput> outputs;
+
+    public UTXOSet() {
+        this(PersistentHashMap.empty());
+    }
+
+    private UTXOSet(PersistentHashMap<OutPoint, TxOutput> outputs) {
+        this.outputs = outputs;
+    }
+
+    public boolean contains(OutPoint outPoint) {
+        return outputs.containsKey(outPoint);
+    }
+
+    /**
+     * Returns an unspent output
+     *
+     * @param outPoint the out point of the output
+     * @return the output, or null if it does not exist or has been spent
+     */
+    public TxOutput get(OutPoint outPoint) {
+        return outputs.get(outPoint);
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    /**
+     * Returns a set with an unspent output added, used when loading a snapshot of the set
+     *
+     * @param outPoint the out point of the output
+     * @param output the output
+     * @return the updated set
+     */
+    public UTXOSet add(OutPoint outPoint, TxOutput output) {
+        return new UTXOSet(outputs.put(outPoint, output));
+    }
+
+    public void forEach(BiConsumer<OutPoint, TxOutput> action) {
+        outputs.forEach(action);
+    }
+
+    /**
+     * Returns the set after spending the inputs and adding the outputs of every transaction in a block
+     *
+     * @param block the block to be connected
+     * @param undo the undo record the spent outputs are added to, or null if it is not needed
+     * @return the updated set
+     * @throws BlockChainException when an input of the block is not in the set, or an output already is
+     */
+    public UTXOSet connectBlock(Block block, BlockUndo undo) throws BlockChainException {
+        PersistentHashMap<OutPoint, TxOutput> newOutputs = outputs;
+        for (Transaction transaction : block.getAllTransactions()) {
+            for (TxInput input : transaction.getInputs()) {
+                if (TxInput.isCoinBaseInput(input)) {
+                    continue;
+                }
+                TxOutput spent = newOutputs.get(input.getOutPoint());
+                if (spent == null) {
+                    throw new BlockChainException("utxoConnectBlock", "input is not in the UTXO set");
+                }
+                newOutputs = newOutputs.remove(input.getOutPoint());
+                if (undo != null) {
+                    undo.addSpent(input.getOutPoint(), spent);
+                }
+            }
+            for (int i = 0; i < transaction.getOutputs().size(); i++) {
+                OutPoint outPoint = new OutPoint(transaction.getHash(), i);
+                if (newOutputs.containsKey(outPoint)) {
+                    throw new BlockChainException("utxoConnectBlock", "output is already in the UTXO set");
+                }
+                newOutputs = newOutputs.put(outPoint, transaction.getOutputs().get(i));
+            }
+        }
+        return new UTXOSet(newOutputs);
+    }
+
+    /**
+     * Returns the set before a block, which must be the last block connected to this set
+     *
+     * @param block the block to be disconnected
+     * @param undo the undo record filled when the block was connected
+     * @return the updated set
+     */
+    public UTXOSet disconnectBlock(Block block, BlockUndo undo) {
+        PersistentHashMap<OutPoint, TxOutput> newOutputs = outputs;
+        // Restore first, so outputs both created and spent within the block end up removed
+        for (int i = 0; i < undo.getSpentOutPoints().size(); i++) {
+            newOutputs = newOutputs.put(undo.getSpentOutPoints().get(i), undo.getSpentOutputs().get(i));
+        }
+        for (Transaction transaction : block.getAllTransactions()) {
+            for (int i = 0; i < transaction.getOutputs().size(); i++) {
+                newOutputs = newOutputs.remove(new OutPoint(transaction.getHash(), i));
+            }
+        }
+        return new UTXOSet(newOutputs);
+    }
+}
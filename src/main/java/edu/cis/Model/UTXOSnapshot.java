@@ -0,0 +1,125 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * UTXO set as of a block, saved to a file so a node can start from it instead of connecting every block again.
+ *
+ * The file holds a version (int), the block hash, the number of outputs (int), then for each output the transaction
+ * hash, output index (int), amount (int), address length (byte) and address. A snapshot is written to a temporary
+ * file which then replaces the old snapshot, so a crash while saving leaves the old snapshot intact.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class UTXOSnapshot {
+
+    private static final int VERSION = 1;
+
+    private Hash256 blockHash;
+    private UTXOSet utxoSet;
+
+    public UTXOSnapshot(Hash256 blockHash, UTXOSet utxoSet) {
+        this.blockHash = blockHash;
+        this.utxoSet = utxoSet;
+    }
+
+    public Hash256 getBlockHash() {
+        return blockHash;
+    }
+
+    public UTXOSet getUTXOSet() {
+        return utxoSet;
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing any previous snapshot in that file
+     *
+     * @param file the snapshot file
+     * @throws BlockChainException when the file cannot be written
+     */
+    public void save(File file) throws BlockChainException {
+        Helper helper = Helper.getInstance();
+        int[] size = {4 + Hash256.SIZE + 4};
+        utxoSet.forEach((outPoint, output) -> size[0] += Hash256.SIZE + 4 + 4 + 1 + output.getHexAddr().length() / 2);
+        ByteBuffer buffer = ByteBuffer.allocate(size[0]);
+        buffer.putInt(VERSION);
+        blockHash.writeTo(buffer);
+        buffer.putInt(utxoSet.size());
+        utxoSet.forEach((outPoint, output) -> {
+            outPoint.getTxHash().writeTo(buffer);
+            buffer.putInt(outPoint.getOutputIndex());
+            buffer.putInt(output.getAmount());
+            buffer.put((byte) (output.getHexAddr().length() / 2));
+            helper.putHex(buffer, output.getHexAddr());
+        });
+        buffer.flip();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw new BlockChainException("utxoSnapshotSave", e.getMessage());
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new BlockChainException("utxoSnapshotSave", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a snapshot from a file, through a memory-mapped view of the file
+     *
+     * @param file the snapshot file
+     * @return the snapshot, or null if the file does not exist
+     * @throws BlockChainException when the file cannot be read or is malformed
+     */
+    public static UTXOSnapshot load(File file) throws BlockChainException {
+        if (!file.exists()) {
+            return null;
+        }
+        Helper helper = Helper.getInstance();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != VERSION) {
+                throw new BlockChainException("utxoSnapshotLoad", "unknown snapshot version");
+            }
+            Hash256 blockHash = Hash256.readFrom(buffer);
+            int count = buffer.getInt();
+            UTXOSet utxoSet = new UTXOSet();
+            byte[] address = new byte[0];
+            for (int i = 0; i < count; i++) {
+                OutPoint outPoint = new OutPoint(Hash256.readFrom(buffer), buffer.getInt());
+                int amount = buffer.getInt();
+                int addressLength = buffer.get();
+                if (address.length != addressLength) {
+                    address = new byte[addressLength];
+                }
+                buffer.get(address);
+                utxoSet = utxoSet.add(outPoint, new TxOutput(amount, helper.byteToHex(address)));
+            }
+            return new UTXOSnapshot(blockHash, utxoSet);
+        }
+        catch (IOException | RuntimeException e) {
+            throw new BlockChainException("utxoSnapshotLoad", "snapshot is malformed: " + e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+import edu.cis.Utils.HelperException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Streaming decoder for the format described in WireFormat. Objects are parsed field by field, either directly from
+ * a buffer or from a channel through a small internal buffer which is refilled as fields are read, so a message never
+ * has to be held in memory as a whole.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class WireDecoder {
+
+    private static final int CHANNEL_BUFFER_SIZE = 8192;
+    // Limits on counts and lengths, so a malformed message cannot make the decoder allocate huge arrays
+    private static final int MAX_COUNT = 1 << 20;
+    private static final int MAX_FIELD_SIZE = 1024;
+
+    private Helper helper;
+
+    private ByteBuffer buffer;
+    private ReadableByteChannel channel;
+
+    /**
+     * Creates a decoder reading from the current position of a buffer
+     *
+     * @param buffer the buffer to read from
+     */
+    public WireDecoder(ByteBuffer buffer) {
+        this.helper = Helper.getInstance();
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a decoder reading from a channel
+     *
+     * @param channel the channel to read from
+     */
+    public WireDecoder(ReadableByteChannel channel) {
+        this.helper = Helper.getInstance();
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+     * Reads a block message
+     *
+     * @return the block
+     * @throws BlockChainException when the message is malformed, is not a block, or cannot be read
+     */
+    public Block readBlockMessage() throws BlockChainException {
+        readMessageStart(WireFormat.TYPE_BLOCK);
+        return readBlock();
+    }
+
+    /**
+     * Reads a transaction message
+     *
+     * @return the transaction
+     * @throws BlockChainException when the message is malformed, is not a transaction, or cannot be read
+     */
+    public Transaction readTransactionMessage() throws BlockChainException {
+        readMessageStart(WireFormat.TYPE_TRANSACTION);
+        return readTransaction(false);
+    }
+
+    /**
+     * Reads a block without the version and type
+     *
+     * @return the block
+     * @throws BlockChainException when the block is malformed or cannot be read
+     */
+    public Block readBlock() throws BlockChainException {
+        Hash256 prevHash = readHash();
+        Hash256 merkleRoot = readHash();
+        require(12);
+        long timestamp = buffer.getLong();
+        int nonce = buffer.getInt();
+        int transactionCount = readCount();
+        Block block = new Block(prevHash);
+        for (int i = 0; i < transactionCount; i++) {
+            block.addTransaction(readTransaction(i == 0));
+        }
+        block.setProofOfWork(timestamp, nonce);
+        if (!block.getMerkleRoot().equals(merkleRoot)) {
+            throw new BlockChainException("wireDecode", "merkle root does not match the transactions");
+        }
+        return block;
+    }
+
+    /**
+     * Reads a transaction without the version and type
+     *
+     * @param coinBase whether the transaction is the first of a block, the only one which may have a coinbase input
+     * @return the transaction
+     * @throws BlockChainException when the transaction is malformed or cannot be read
+     */
+    public Transaction readTransaction(boolean coinBase) throws BlockChainException {
+        int inputCount = readCount();
+        ArrayList<TxInput> inputs = new ArrayList<>(Math.min(inputCount, 1024));
+        for (int i = 0; i < inputCount; i++) {
+            inputs.add(readInput(coinBase));
+        }
+        int outputCount = readCount();
+        ArrayList<TxOutput> outputs = new ArrayList<>(Math.min(outputCount, 1024));
+        for (int i = 0; i < outputCount; i++) {
+            outputs.add(readOutput());
+        }
+        return new Transaction(inputs, outputs);
+    }
+
+    private TxInput readInput(boolean coinBase) throws BlockChainException {
+        Hash256 txHash = readHash();
+        long outputIndex = readVarInt() - 1;
+        if (outputIndex > Integer.MAX_VALUE) {
+            throw new BlockChainException("wireDecode", "output index is too large");
+        }
+        if (outputIndex == -1) {
+            // Anything else with no signature or key would not be a valid input
+            if (!coinBase || !txHash.equals(Hash256.ZERO)) {
+                throw new BlockChainException("wireDecode", "input has no signature");
+            }
+            return TxInput.coinBaseInput();
+        }
+        byte[] signature = readBytes(readLength());
+        byte[] compressedKey = readBytes(WireFormat.PUBLIC_KEY_SIZE);
+        try {
+            return new TxInput(txHash, (int) outputIndex, helper.byteToHex(signature),
+                               helper.compressedToPubKey(compressedKey));
+        }
+        catch (HelperException e) {
+            throw new BlockChainException("wireDecode", "public key is invalid");
+        }
+    }
+
+    private TxOutput readOutput() throws BlockChainException {
+        require(8);
+        long amount = buffer.getLong();
+        if (amount < 0 || amount > Integer.MAX_VALUE) {
+            throw new BlockChainException("wireDecode", "amount is out of range");
+        }
+        byte[] address = readBytes(readLength());
+        return new TxOutput((int) amount, helper.byteToHex(address));
+    }
+
+    public long readVarInt() throws BlockChainException {
+        require(1);
+        int marker = buffer.get() & 0xff;
+        if (marker < 0xfd) {
+            return marker;
+        }
+        int size = marker == 0xfd ? 2 : marker == 0xfe ? 4 : 8;
+        require(size);
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (buffer.get() & 0xffL) << (8 * i);
+        }
+        if (value < 0 || WireFormat.getVarIntSize(value) != size + 1) {
+            throw new BlockChainException("wireDecode", "varint is not in its shortest form");
+        }
+        return value;
+    }
+
+    private void readMessageStart(int type) throws BlockChainException {
+        require(2);
+        int version = buffer.get() & 0xff;
+        if (version != WireFormat.VERSION) {
+            throw new BlockChainException("wireDecode", "unsupported version " + version);
+        }
+        if ((buffer.get() & 0xff) != type) {
+            throw new BlockChainException("wireDecode", "unexpected message type");
+        }
+    }
+
+    private int readCount() throws BlockChainException {
+        long count = readVarInt();
+        if (count > MAX_COUNT) {
+            throw new BlockChainException("wireDecode", "count is too large");
+        }
+        return (int) count;
+    }
+
+    private int readLength() throws BlockChainException {
+        long length = readVarInt();
+        if (length > MAX_FIELD_SIZE) {
+            throw new BlockChainException("wireDecode", "field is too long");
+        }
+        return (int) length;
+    }
+
+    private Hash256 readHash() throws BlockChainException {
+        require(Hash256.SIZE);
+        return Hash256.readFrom(buffer);
+    }
+
+    private byte[] readBytes(int length) throws BlockChainException {
+        require(length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // Makes sure the buffer holds at least a number of bytes, reading more from the channel when there is one
+    private void require(int size) throws BlockChainException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        if (channel == null) {
+            throw new BlockChainException("wireDecode", "message is truncated");
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < size) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    throw new BlockChainException("wireDecode", "message is truncated");
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new BlockChainException("wireDecode", e.getMessage());
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,177 @@
+package edu.cis.Model;
+
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Binary format used to send blocks and transactions between nodes and to store them. This is separate from the
+ * bytes that are hashed (see Byteable.writeTo), which stay unchanged.
+ *
+ * A message starts with the format version and the type of object, followed by the object:
+ * <ul>
+ *     <li>block: the 76 byte header, the number of transactions (varint), then the transactions</li>
+ *     <li>transaction: the number of inputs (varint), the inputs, the number of outputs (varint), then the outputs</li>
+ *     <li>input: the transaction hash, the output index + 1 (varint, 0 for a coinbase input), then unless it is a
+ *     coinbase input the signature length (varint), the DER signature, and the 33 byte compressed public key</li>
+ *     <li>output: the amount (8 bytes), the address length (varint), then the address</li>
+ * </ul>
+ * Varints use Bitcoin's CompactSize encoding. Messages are read back with WireDecoder.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class WireFormat {
+
+    public static final int VERSION = 1;
+    public static final int TYPE_BLOCK = 1;
+    public static final int TYPE_TRANSACTION = 2;
+
+    // Size of a compressed secp256k1 public key
+    public static final int PUBLIC_KEY_SIZE = 33;
+
+    private WireFormat() { }
+
+    /**
+     * Encodes a block as a message
+     *
+     * @param block the block to be encoded
+     * @return a buffer holding the message, ready to be read
+     */
+    public static ByteBuffer encode(Block block) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + getBlockSize(block));
+        buffer.put((byte) VERSION);
+        buffer.put((byte) TYPE_BLOCK);
+        writeBlock(buffer, block);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a transaction as a message
+     *
+     * @param transaction the transaction to be encoded
+     * @return a buffer holding the message, ready to be read
+     */
+    public static ByteBuffer encode(Transaction transaction) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + getTransactionSize(transaction));
+        buffer.put((byte) VERSION);
+        buffer.put((byte) TYPE_TRANSACTION);
+        writeTransaction(buffer, transaction);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a block message to a channel
+     *
+     * @param channel the channel to write to
+     * @param block the block to be written
+     * @throws IOException when the channel cannot be written
+     */
+    public static void write(WritableByteChannel channel, Block block) throws IOException {
+        ByteBuffer buffer = encode(block);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static int getBlockSize(Block block) {
+        int size = Block.HEADER_SIZE + getVarIntSize(block.getAllTransactions().size());
+        for (Transaction transaction : block.getAllTransactions()) {
+            size += getTransactionSize(transaction);
+        }
+        return size;
+    }
+
+    public static int getTransactionSize(Transaction transaction) {
+        int size = getVarIntSize(transaction.getInputs().size()) + getVarIntSize(transaction.getOutputs().size());
+        for (TxInput input : transaction.getInputs()) {
+            size += Hash256.SIZE + getVarIntSize(input.getOutputIndex() + 1L);
+            if (!TxInput.isCoinBaseInput(input)) {
+                int signatureLength = input.getSignature().length() / 2;
+                size += getVarIntSize(signatureLength) + signatureLength + PUBLIC_KEY_SIZE;
+            }
+        }
+        for (TxOutput output : transaction.getOutputs()) {
+            int addressLength = output.getHexAddr().length() / 2;
+            size += 8 + getVarIntSize(addressLength) + addressLength;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a block without the version and type
+     *
+     * @param buffer the buffer to write into
+     * @param block the block to be written
+     */
+    public static void writeBlock(ByteBuffer buffer, Block block) {
+        block.writeTo(buffer);
+        writeVarInt(buffer, block.getAllTransactions().size());
+        for (Transaction transaction : block.getAllTransactions()) {
+            writeTransaction(buffer, transaction);
+        }
+    }
+
+    /**
+     * Writes a transaction without the version and type
+     *
+     * @param buffer the buffer to write into
+     * @param transaction the transaction to be written
+     */
+    public static void writeTransaction(ByteBuffer buffer, Transaction transaction) {
+        Helper helper = Helper.getInstance();
+        writeVarInt(buffer, transaction.getInputs().size());
+        for (TxInput input : transaction.getInputs()) {
+            input.getTxHash().writeTo(buffer);
+            writeVarInt(buffer, input.getOutputIndex() + 1L);
+            if (!TxInput.isCoinBaseInput(input)) {
+                writeVarInt(buffer, input.getSignature().length() / 2);
+                helper.putHex(buffer, input.getSignature());
+                buffer.put(helper.pubKeyToCompressed(input.getPublicKey()));
+            }
+        }
+        writeVarInt(buffer, transaction.getOutputs().size());
+        for (TxOutput output : transaction.getOutputs()) {
+            buffer.putLong(output.getAmount());
+            writeVarInt(buffer, output.getHexAddr().length() / 2);
+            helper.putHex(buffer, output.getHexAddr());
+        }
+    }
+
+    public static int getVarIntSize(long value) {
+        if (value < 0xfd) {
+            return 1;
+        }
+        if (value <= 0xffff) {
+            return 3;
+        }
+        if (value <= 0xffffffffL) {
+            return 5;
+        }
+        return 9;
+    }
+
+    /**
+     * Writes a non-negative number in CompactSize form: one byte below 0xfd, otherwise a marker byte (0xfd, 0xfe or
+     * 0xff) followed by the number in 2, 4 or 8 little endian bytes
+     *
+     * @param buffer the buffer to write into
+     * @param value the number to be written
+     */
+    public static void writeVarInt(ByteBuffer buffer, long value) {
+        int size = getVarIntSize(value);
+        if (size == 1) {
+            buffer.put((byte) value);
+            return;
+        }
+        buffer.put((byte) (size == 3 ? 0xfd : size == 5 ? 0xfe : 0xff));
+        for (int i = 0; i < size - 1; i++) {
+            buffer.put((byte) (value >>> (8 * i)));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package edu.cis.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base58 and Base58Check codec working directly on byte arrays. Numbers are held in 32 bit limbs and converted five
+ * base58 digits at a time (58^5 fits in a limb), and characters are mapped to digits with a lookup table.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class Base58 {
+
+    private static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+    private static final int[] INDEXES = new int[128];
+    // Number of base58 digits converted per division or multiplication
+    private static final int CHUNK_DIGITS = 5;
+    private static final long[] POWERS = new long[CHUNK_DIGITS + 1];
+    private static final int CHECKSUM_SIZE = 4;
+
+    static {
+        Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEXES[ALPHABET[i]] = i;
+        }
+        POWERS[0] = 1;
+        for (int i = 1; i <= CHUNK_DIGITS; i++) {
+            POWERS[i] = POWERS[i - 1] * 58;
+        }
+    }
+
+    private Base58() { }
+
+    /**
+     * Encodes bytes in base58, each leading zero byte is encoded as a '1'
+     *
+     * @param input the bytes to be encoded
+     * @return the base58 string
+     */
+    public static String encode(byte[] input) {
+        int zeros = 0;
+        while (zeros < input.length && input[zeros] == 0) {
+            zeros++;
+        }
+        int[] limbs = toLimbs(input, zeros);
+        // log(256) / log(58) is about 1.366
+        char[] output = new char[zeros + (input.length - zeros) * 1366 / 1000 + 1 + CHUNK_DIGITS];
+        int outputStart = output.length;
+        int firstLimb = 0;
+        while (firstLimb < limbs.length) {
+            // Divide the whole number by 58^5, the remainder gives the next five digits
+            long remainder = 0;
+            for (int i = firstLimb; i < limbs.length; i++) {
+                long current = (remainder << 32) | (limbs[i] & 0xffffffffL);
+                limbs[i] = (int) (current / POWERS[CHUNK_DIGITS]);
+                remainder = current % POWERS[CHUNK_DIGITS];
+            }
+            while (firstLimb < limbs.length && limbs[firstLimb] == 0) {
+                firstLimb++;
+            }
+            for (int i = 0; i < CHUNK_DIGITS; i++) {
+                output[--outputStart] = ALPHABET[(int) (remainder % 58)];
+                remainder /= 58;
+            }
+        }
+        // The last chunk may have been padded with zero digits
+        while (outputStart < output.length && output[outputStart] == ALPHABET[0]) {
+            outputStart++;
+        }
+        for (int i = 0; i < zeros; i++) {
+            output[--outputStart] = ALPHABET[0];
+        }
+        return new String(output, outputStart, output.length - outputStart);
+    }
+
+    /**
+     * Decodes a base58 string into bytes, each leading '1' is decoded as a zero byte
+     *
+     * @param input the base58 string
+     * @return the decoded bytes
+     * @throws HelperException when the string contains a character that is not in the base58 alphabet
+     */
+    public static byte[] decode(String input) throws HelperException {
+        int zeros = 0;
+        while (zeros < input.length() && input.charAt(zeros) == ALPHABET[0]) {
+            zeros++;
+        }
+        // log(58) / log(256) is about 0.733
+        int maxBytes = (input.length() - zeros) * 733 / 1000 + 1;
+        int[] limbs = new int[(maxBytes + 3) / 4];
+        int i = zeros;
+        while (i < input.length()) {
+            // Multiply the whole number by 58^n and add the value of the next n digits
+            int chunkLength = Math.min(CHUNK_DIGITS, input.length() - i);
+            long carry = 0;
+            for (int j = 0; j < chunkLength; j++) {
+                carry = carry * 58 + digit(input.charAt(i + j));
+            }
+            long multiplier = POWERS[chunkLength];
+            for (int j = limbs.length - 1; j >= 0; j--) {
+                long current = (limbs[j] & 0xffffffffL) * multiplier + carry;
+                limbs[j] = (int) current;
+                carry = current >>> 32;
+            }
+            i += chunkLength;
+        }
+        byte[] unpadded = new byte[limbs.length * 4];
+        for (int j = 0; j < limbs.length; j++) {
+            unpadded[j * 4] = (byte) (limbs[j] >>> 24);
+            unpadded[j * 4 + 1] = (byte) (limbs[j] >>> 16);
+            unpadded[j * 4 + 2] = (byte) (limbs[j] >>> 8);
+            unpadded[j * 4 + 3] = (byte) limbs[j];
+        }
+        int start = 0;
+        while (start < unpadded.length && unpadded[start] == 0) {
+            start++;
+        }
+        byte[] output = new byte[zeros + unpadded.length - start];
+        System.arraycopy(unpadded, start, output, zeros, unpadded.length - start);
+        return output;
+    }
+
+    /**
+     * Encodes a payload in base58Check, which appends the first four bytes of the payload's double SHA256
+     *
+     * @param payload the bytes to be encoded (including any version byte)
+     * @return the base58Check string
+     */
+    public static String encodeChecked(byte[] payload) {
+        byte[] checksum = checksum(payload, payload.length);
+        byte[] full = Arrays.copyOf(payload, payload.length + CHECKSUM_SIZE);
+        System.arraycopy(checksum, 0, full, payload.length, CHECKSUM_SIZE);
+        return encode(full);
+    }
+
+    /**
+     * Decodes a base58Check string and verifies its checksum
+     *
+     * @param input the base58Check string
+     * @return the payload (including any version byte)
+     * @throws HelperException when the string is malformed or the checksum does not match the payload
+     */
+    public static byte[] decodeChecked(String input) throws HelperException {
+        byte[] full = decode(input);
+        if (full.length < CHECKSUM_SIZE) {
+            throw new HelperException("base58DecodeChecked", "input is too short");
+        }
+        int payloadLength = full.length - CHECKSUM_SIZE;
+        byte[] checksum = checksum(full, payloadLength);
+        for (int i = 0; i < CHECKSUM_SIZE; i++) {
+            if (checksum[i] != full[payloadLength + i]) {
+                throw new HelperException("base58DecodeChecked", "checksum does not match");
+            }
+        }
+        return Arrays.copyOf(full, payloadLength);
+    }
+
+    /**
+     * Encodes a batch of payloads in base58Check
+     *
+     * @param payloads the payloads to be encoded
+     * @return the base58Check strings, in the same order as the payloads
+     */
+    public static List<String> encodeCheckedAll(List<byte[]> payloads) {
+        List<String> encoded = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            encoded.add(encodeChecked(payload));
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes a batch of base58Check strings
+     *
+     * @param inputs the base58Check strings
+     * @return the payloads, in the same order as the inputs
+     * @throws HelperException when any of the strings is malformed
+     */
+    public static List<byte[]> decodeCheckedAll(List<String> inputs) throws HelperException {
+        List<byte[]> decoded = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            decoded.add(decodeChecked(input));
+        }
+        return decoded;
+    }
+
+    private static int digit(char c) throws HelperException {
+        int digit = c < 128 ? INDEXES[c] : -1;
+        if (digit < 0) {
+            throw new HelperException("base58Decode", "invalid character '" + c + "'");
+        }
+        return digit;
+    }
+
+    private static byte[] checksum(byte[] bytes, int length) {
+        return Helper.getInstance().getCryptoEngine().sha256d(ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    private static int[] toLimbs(byte[] input, int start) {
+        int length = input.length - start;
+        int[] limbs = new int[(length + 3) / 4];
+        // The first limb holds the leftover bytes when the length is not a multiple of 4
+        int offset = limbs.length * 4 - length;
+        for (int i = 0; i < length; i++) {
+            int position = offset + i;
+            limbs[position / 4] |= (input[start + i] & 0xff) << (8 * (3 - position % 4));
+        }
+        return limbs;
+    }
+}
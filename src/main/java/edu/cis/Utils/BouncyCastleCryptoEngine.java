@@ -0,0 +1,106 @@
+package edu.cis.Utils;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+
+/**
+ * CryptoEngine which uses the low level BouncyCastle SHA256Digest and ECDSASigner on the secp256k1 curve, reusing one
+ * digest and signer per thread. Signatures are DER encoded, so they are interchangeable with the JCA engine.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class BouncyCastleCryptoEngine implements CryptoEngine {
+
+    private static final ECDomainParameters domain;
+
+    static {
+        X9ECParameters params = CustomNamedCurves.getByName("secp256k1");
+        domain = new ECDomainParameters(params.getCurve(), params.getG(), params.getN(), params.getH());
+    }
+
+    private final ThreadLocal<SHA256Digest> digests = ThreadLocal.withInitial(SHA256Digest::new);
+    private final ThreadLocal<ECDSASigner> signers =
+            ThreadLocal.withInitial(() -> new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest())));
+
+    @Override
+    public byte[] sha256(byte[] input) {
+        SHA256Digest digest = digests.get();
+        byte[] output = new byte[digest.getDigestSize()];
+        digest.update(input, 0, input.length);
+        digest.doFinal(output, 0);
+        return output;
+    }
+
+    @Override
+    public byte[] sha256d(ByteBuffer input) {
+        SHA256Digest digest = digests.get();
+        byte[] output = new byte[digest.getDigestSize()];
+        if (input.hasArray()) {
+            digest.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+        }
+        else {
+            while (input.hasRemaining()) {
+                digest.update(input.get());
+            }
+        }
+        digest.doFinal(output, 0);
+        digest.update(output, 0, output.length);
+        digest.doFinal(output, 0);
+        return output;
+    }
+
+    @Override
+    public byte[] sign(PrivateKey privateKey, byte[] message) {
+        ECDSASigner signer = signers.get();
+        signer.init(true, new ECPrivateKeyParameters(((ECPrivateKey) privateKey).getS(), domain));
+        BigInteger[] signature = signer.generateSignature(sha256(message));
+        try {
+            return new DERSequence(new ASN1Integer[]{new ASN1Integer(signature[0]),
+                                                     new ASN1Integer(signature[1])}).getEncoded();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean verify(PublicKey publicKey, byte[] message, byte[] signature) {
+        BigInteger r;
+        BigInteger s;
+        try {
+            ASN1Sequence sequence = ASN1Sequence.getInstance(signature);
+            r = ASN1Integer.getInstance(sequence.getObjectAt(0)).getPositiveValue();
+            s = ASN1Integer.getInstance(sequence.getObjectAt(1)).getPositiveValue();
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            // Malformed signature encoding
+            return false;
+        }
+        java.security.spec.ECPoint point = ((ECPublicKey) publicKey).getW();
+        ECPublicKeyParameters keyParameters =
+                new ECPublicKeyParameters(domain.getCurve().createPoint(point.getAffineX(), point.getAffineY()),
+                                          domain);
+        ECDSASigner signer = signers.get();
+        signer.init(false, keyParameters);
+        return signer.verifySignature(sha256(message), r, s);
+    }
+}
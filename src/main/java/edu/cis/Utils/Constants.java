@@ -6,8 +6,31 @@ public class Constants {
     public static final int miningDifficulty = 4;
     public static final int miningReward = 50;
 
+    // Storage Constants
+    public static final int blockSegmentSize = 16 * 1024 * 1024;
+    public static final int blockCacheSize = 256;
+    public static final int utxoSnapshotInterval = 100;
+
     // Node Constants
-    public static final int utxoStorageFreq = 5;
+    public static final boolean parallelValidation = false;
+    public static final int signatureCacheSize = 50000;
+    public static final int utxoViewCacheSize = 64;
+    // Number of most recent blocks whose transactions are kept, 0 keeps every block
+    public static final int pruneDepth = 0;
+    // Maximum total size in bytes of the blocks waiting for their parent, in the wire format
+    public static final int orphanPoolSize = 8 * 1024 * 1024;
+    public static final long orphanExpiryMillis = 20 * 60 * 1000;
+
+    // Network Constants
+    // Number of recently announced hashes each node remembers, so it does not request the same object twice
+    public static final int seenSetSize = 50000;
+    // Time after which an unanswered request is sent to the next peer which announced the object, on top of the
+    // round trip latency of the link
+    public static final long requestTimeoutMillis = 1000;
+
+    // Miner Constants
+    // Maximum size in bytes of the transactions picked for a block, in the wire format
+    public static final int maxBlockSize = 1024 * 1024;
 
     // Wallet Constants
     public static final int blocksToWaitForConfirm = 2;
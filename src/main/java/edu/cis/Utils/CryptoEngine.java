@@ -0,0 +1,50 @@
+package edu.cis.Utils;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Backend that performs the hashing and signing used by Helper. Implementations keep their digest and signature
+ * contexts per thread, so they can be used from several threads without creating a new context for every call.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public interface CryptoEngine {
+
+    /**
+     * Performs the SHA256 hashing algorithm on a byte array
+     *
+     * @param input the byte array to be hashed
+     * @return the resulting hash
+     */
+    byte[] sha256(byte[] input);
+
+    /**
+     * Performs SHA256 twice on the remaining bytes of a buffer, consuming them
+     *
+     * @param input the buffer to be hashed
+     * @return the resulting hash
+     */
+    byte[] sha256d(ByteBuffer input);
+
+    /**
+     * Generates a DER encoded SHA256withECDSA signature of a message
+     *
+     * @param privateKey the private key used to generate the signature
+     * @param message the message to be signed
+     * @return the DER encoded signature
+     */
+    byte[] sign(PrivateKey privateKey, byte[] message);
+
+    /**
+     * Verifies a DER encoded SHA256withECDSA signature of a message
+     *
+     * @param publicKey the public key used to verify the signature
+     * @param message the message that was signed
+     * @param signature the DER encoded signature
+     * @return a boolean representing whether the signature is valid or not
+     */
+    boolean verify(PublicKey publicKey, byte[] message, byte[] signature);
+}
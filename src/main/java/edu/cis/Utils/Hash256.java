@@ -0,0 +1,140 @@
+package edu.cis.Utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable 32 byte hash (ie. the double SHA256 of a transaction or block), used as the identity of objects in the
+ * blockchain. The bytes are held big-endian in four longs rather than an array, so a hash takes 48 bytes with no
+ * second object to point to, and comparing two hashes is four long comparisons.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public final class Hash256 implements Comparable<Hash256> {
+
+    public static final int SIZE = 32;
+    public static final Hash256 ZERO = new Hash256(0, 0, 0, 0);
+
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+
+    private Hash256(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+    }
+
+    /**
+     * Creates a hash from a byte array
+     *
+     * @param bytes the 32 bytes of the hash
+     * @return the hash
+     */
+    public static Hash256 fromBytes(byte[] bytes) {
+        if (bytes.length != SIZE) {
+            throw new IllegalArgumentException("hash must be " + SIZE + " bytes");
+        }
+        return readFrom(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates a hash from a byte array. The array is no longer kept, so this is the same as fromBytes.
+     *
+     * @param bytes the 32 bytes of the hash
+     * @return the hash
+     */
+    public static Hash256 wrap(byte[] bytes) {
+        return fromBytes(bytes);
+    }
+
+    /**
+     * Reads a hash from the current position of a buffer
+     *
+     * @param buffer the buffer to read from, which must be big-endian
+     * @return the hash
+     */
+    public static Hash256 readFrom(ByteBuffer buffer) {
+        return new Hash256(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    public static Hash256 fromHex(String hex) {
+        return fromBytes(Helper.getInstance().hexToByte(hex));
+    }
+
+    /**
+     * Returns the bytes of the hash in a new array
+     *
+     * @return the bytes of the hash
+     */
+    public byte[] getBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    public byte getByte(int index) {
+        if (index < 0 || index >= SIZE) {
+            throw new IndexOutOfBoundsException("byte " + index + " does not exist");
+        }
+        return (byte) (getWord(index / 8) >>> (8 * (7 - index % 8)));
+    }
+
+    /**
+     * Writes the hash at the current position of a buffer
+     *
+     * @param buffer the buffer to write into, which must be big-endian
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(word0).putLong(word1).putLong(word2).putLong(word3);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof Hash256) {
+            Hash256 other = (Hash256) obj;
+            return word0 == other.word0 && word1 == other.word1 && word2 == other.word2 && word3 == other.word3;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        // The bytes of a hash are already uniformly distributed, so any of them make a good hash code
+        return (int) (word3 ^ (word3 >>> 32));
+    }
+
+    @Override
+    public int compareTo(Hash256 other) {
+        for (int i = 0; i < 4; i++) {
+            int compare = Long.compareUnsigned(getWord(i), other.getWord(i));
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return Helper.getInstance().byteToHex(getBytes());
+    }
+
+    private long getWord(int index) {
+        switch (index) {
+            case 0:
+                return word0;
+            case 1:
+                return word1;
+            case 2:
+                return word2;
+            default:
+                return word3;
+        }
+    }
+}
@@ -4,10 +4,15 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.interfaces.ECPublicKey;
 import java.security.spec.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import edu.cis.Model.Byteable;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
 
 /**
  * Singleton Class that provides helper method for cryptographic functions
@@ -19,6 +24,14 @@ public class Helper {
 
     private static Helper instance = null;
 
+    private volatile CryptoEngine cryptoEngine = new JcaCryptoEngine();
+
+    // Buffer which objects are serialized into before hashing, one per thread and grown when needed
+    private final ThreadLocal<ByteBuffer> hashBuffer = new ThreadLocal<>();
+
+    // Parameters of secp256k1, looked up once when a compressed public key is first decoded
+    private volatile ECParameterSpec curveSpec;
+
     private Helper() { }
 
     /**
@@ -37,6 +50,19 @@ public class Helper {
         return instance;
     }
 
+    public CryptoEngine getCryptoEngine() {
+        return cryptoEngine;
+    }
+
+    /**
+     * Changes the backend used for hashing and signatures (ie. JcaCryptoEngine or BouncyCastleCryptoEngine)
+     *
+     * @param cryptoEngine the new backend
+     */
+    public void setCryptoEngine(CryptoEngine cryptoEngine) {
+        this.cryptoEngine = cryptoEngine;
+    }
+
     /**
      * Generates a random public and private ECDSA key pair, using the curve secp256k1
      *
@@ -63,16 +89,8 @@ public class Helper {
      * @return the ECDSA signature
      */
     public String generateSig(PrivateKey privateKey, String message) {
-        try {
-            Signature ecdsaSign = Signature.getInstance("SHA256withECDSA");
-            ecdsaSign.initSign(privateKey);
-            ecdsaSign.update(message.getBytes(StandardCharsets.UTF_8));
-            byte[] signature = ecdsaSign.sign();
-            return byteToHex(signature);
-        }
-        catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            throw new IllegalStateException(e);
-        }
+        byte[] signature = cryptoEngine.sign(privateKey, message.getBytes(StandardCharsets.UTF_8));
+        return byteToHex(signature);
     }
 
     /**
@@ -84,15 +102,22 @@ public class Helper {
      * @return a boolean representing whether the signature is valid or not
      */
     public boolean verifySig(PublicKey publicKey, String message, String signature) {
-        try {
-            Signature ecdsaVerify = Signature.getInstance("SHA256withECDSA");
-            ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(message.getBytes(StandardCharsets.UTF_8));
-            return ecdsaVerify.verify(hexToByte(signature));
-        }
-        catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            throw new IllegalStateException(e);
+        return cryptoEngine.verify(publicKey, message.getBytes(StandardCharsets.UTF_8), hexToByte(signature));
+    }
+
+    /**
+     * Verifies a batch of ECDSA signatures, stopping at the first signature that is invalid
+     *
+     * @param checks the signatures to be verified
+     * @return a boolean representing whether all signatures are valid
+     */
+    public boolean verifyAll(List<SignatureCheck> checks) {
+        for (SignatureCheck check : checks) {
+            if (!verifySig(check.getPublicKey(), check.getMessage(), check.getSignature())) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -129,6 +154,52 @@ public class Helper {
         }
     }
 
+    /**
+     * Converts a public key into its 33 byte compressed form, the x coordinate prefixed by the parity of y
+     *
+     * @param publicKey the public key to be converted
+     * @return the compressed public key
+     */
+    public byte[] pubKeyToCompressed(PublicKey publicKey) {
+        ECPoint point = ((ECPublicKey) publicKey).getW();
+        byte[] compressed = new byte[33];
+        compressed[0] = (byte) (point.getAffineY().testBit(0) ? 3 : 2);
+        byte[] x = point.getAffineX().toByteArray();
+        // toByteArray may add a sign byte or return fewer than 32 bytes
+        int length = Math.min(x.length, 32);
+        System.arraycopy(x, x.length - length, compressed, 33 - length, length);
+        return compressed;
+    }
+
+    /**
+     * Converts a compressed public key back into a public key object
+     *
+     * @param compressed the 33 byte compressed public key
+     * @return the public key object
+     * @throws HelperException when the bytes are not a point on secp256k1
+     */
+    public PublicKey compressedToPubKey(byte[] compressed) throws HelperException {
+        org.bouncycastle.math.ec.ECPoint point;
+        try {
+            point = CustomNamedCurves.getByName("secp256k1").getCurve().decodePoint(compressed).normalize();
+        }
+        catch (IllegalArgumentException e) {
+            throw new HelperException("compressedToPubKey", "input is not a valid public key");
+        }
+        try {
+            if (curveSpec == null) {
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec("secp256k1"));
+                curveSpec = parameters.getParameterSpec(ECParameterSpec.class);
+            }
+            ECPoint w = new ECPoint(point.getAffineXCoord().toBigInteger(), point.getAffineYCoord().toBigInteger());
+            return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(w, curveSpec));
+        }
+        catch (NoSuchAlgorithmException | InvalidParameterSpecException | InvalidKeySpecException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Converts a public key into an address, using the hash160 hashing algorithm
      *
@@ -149,28 +220,7 @@ public class Helper {
      * @return the encoded address in base58Check
      */
     public String encodeFromHexAddr(String addr) {
-        String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
-
-        String verAddr = "00" + addr;
-        String checksum = byteToHex(SHA256(SHA256(hexToByte(verAddr))));
-        String fullAddr = verAddr + checksum.substring(0, 8);
-
-        BigInteger hashInteger = new BigInteger(hexToByte(fullAddr));
-        StringBuilder base58String = new StringBuilder();
-        while (hashInteger.compareTo(BigInteger.ZERO) > 0) {
-            int remainder = hashInteger.mod(BigInteger.valueOf(58)).intValue();
-            base58String.append(ALPHABET.charAt(remainder));
-            hashInteger = hashInteger.divide(BigInteger.valueOf(58));
-        }
-        for (byte aByte : hexToByte(fullAddr)) {
-            if (aByte == 0x00) {
-                base58String.append("1");
-            }
-            else {
-                break;
-            }
-        }
-        return base58String.reverse().toString();
+        return Base58.encodeChecked(hexToByte("00" + addr));
     }
 
     /**
@@ -181,32 +231,17 @@ public class Helper {
      * @throws HelperException when input address is malformed (ie. checksum does not match content)
      */
     public String decodeToHexAddr(String addr) throws HelperException {
-        String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
-
-        BigInteger hashInteger = BigInteger.ZERO;
-        for (int i = 0; i < addr.length(); i++) {
-            hashInteger = hashInteger.multiply(BigInteger.valueOf(58));
-            hashInteger = hashInteger.add(BigInteger.valueOf(ALPHABET.indexOf(addr.charAt(i))));
+        byte[] verAddr;
+        try {
+            verAddr = Base58.decodeChecked(addr);
         }
-        String fullAddr = hashInteger.toString(16);
-        for (char c : addr.toCharArray()) {
-            if (c == '1') {
-                fullAddr = "00" + fullAddr;
-            }
-            else {
-                break;
-            }
+        catch (HelperException e) {
+            throw new HelperException("decodeToHexAddr", "input address is malformed");
         }
-
-        // Make sure checksum matches address
-        String hexAddr = fullAddr.substring(0, fullAddr.length() - 8);
-        String checksum = fullAddr.substring(fullAddr.length()-8);
-        String checksumFromAddr = byteToHex(SHA256(SHA256(hexToByte(hexAddr)))).substring(0, 8);
-        if (!checksumFromAddr.equals(checksum)) {
+        if (verAddr.length == 0) {
             throw new HelperException("decodeToHexAddr", "input address is malformed");
         }
-
-        return hexAddr.substring(2);
+        return byteToHex(Arrays.copyOfRange(verAddr, 1, verAddr.length));
     }
 
     /**
@@ -229,14 +264,59 @@ public class Helper {
     }
 
     /**
-     * Takes in a Byteable object (an object which can be turned into a byte array), and performs SHA256 twice to get
-     * the hash of the object
+     * Returns the hash of a Byteable object (an object which can be turned into a byte array), which is cached by the
+     * object after it is first computed
      *
      * @param object the object to be hashed
      * @return the resulting hash
      */
-    public String getHash(Byteable object) {
-        return byteToHex(SHA256(SHA256(object.getBytes())));
+    public Hash256 getHash(Byteable object) {
+        return object.getHash();
+    }
+
+    /**
+     * Takes in a Byteable object, and performs SHA256 twice to get the hash of the object
+     *
+     * @param object the object to be hashed
+     * @return the resulting hash
+     */
+    public Hash256 computeHash(Byteable object) {
+        int size = object.getByteSize();
+        ByteBuffer buffer = hashBuffer.get();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, 1024));
+        }
+        // Take the buffer while in use, since writing an object may hash other objects (ie. a block's merkle root)
+        hashBuffer.set(null);
+        try {
+            buffer.clear();
+            object.writeTo(buffer);
+            buffer.flip();
+            return Hash256.wrap(cryptoEngine.sha256d(buffer));
+        }
+        finally {
+            hashBuffer.set(buffer);
+        }
+    }
+
+    /**
+     * Checks whether a hash satisfies the proof of work, which requires the hash to start with a number of zero hex
+     * digits
+     *
+     * @param hash the hash to be checked
+     * @param difficulty the number of leading zero hex digits required
+     * @return a boolean representing whether the hash meets the difficulty
+     */
+    public boolean meetsDifficulty(byte[] hash, int difficulty) {
+        for (int i = 0; i < difficulty / 2; i++) {
+            if (hash[i] != 0) {
+                return false;
+            }
+        }
+        if (difficulty % 2 == 1) {
+            return (hash[difficulty / 2] & 0xf0) == 0;
+        }
+        return true;
     }
 
     /**
@@ -246,13 +326,21 @@ public class Helper {
      * @return a byte array of the resulting hash
      */
     public byte[] SHA256(byte[] input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(input);
-        }
-        catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException(e);
+        return cryptoEngine.sha256(input);
+    }
+
+    /**
+     * Performs SHA256 twice on each byte array of a batch
+     *
+     * @param inputs the byte arrays to be hashed
+     * @return the resulting hashes, in the same order as the inputs
+     */
+    public List<byte[]> sha256d(List<byte[]> inputs) {
+        List<byte[]> hashes = new ArrayList<>(inputs.size());
+        for (byte[] input : inputs) {
+            hashes.add(cryptoEngine.sha256d(ByteBuffer.wrap(input)));
         }
+        return hashes;
     }
 
     /**
@@ -303,6 +391,20 @@ public class Helper {
         return bytes;
     }
 
+    /**
+     * Writes a hex string into a buffer as bytes, without creating an intermediate byte array
+     *
+     * @param buffer the buffer to write into
+     * @param hexString the hex string to be written
+     */
+    public void putHex(ByteBuffer buffer, String hexString) {
+        for (int i = 0; i < hexString.length(); i += 2) {
+            int firstDigit = Character.digit(hexString.charAt(i), 16);
+            int secondDigit = Character.digit(hexString.charAt(i+1), 16);
+            buffer.put((byte) ((firstDigit << 4) + secondDigit));
+        }
+    }
+
     /**
      * Converts a number to a byte array, along with padding.
      *
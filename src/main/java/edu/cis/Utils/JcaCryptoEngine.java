@@ -0,0 +1,73 @@
+package edu.cis.Utils;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+
+/**
+ * CryptoEngine which uses the default JCA providers, reusing one MessageDigest and Signature per thread
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class JcaCryptoEngine implements CryptoEngine {
+
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ThreadLocal<Signature> signatures = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withECDSA");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @Override
+    public byte[] sha256(byte[] input) {
+        return digests.get().digest(input);
+    }
+
+    @Override
+    public byte[] sha256d(ByteBuffer input) {
+        MessageDigest digest = digests.get();
+        digest.update(input);
+        return digest.digest(digest.digest());
+    }
+
+    @Override
+    public byte[] sign(PrivateKey privateKey, byte[] message) {
+        try {
+            Signature ecdsaSign = signatures.get();
+            ecdsaSign.initSign(privateKey);
+            ecdsaSign.update(message);
+            return ecdsaSign.sign();
+        }
+        catch (InvalidKeyException | SignatureException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean verify(PublicKey publicKey, byte[] message, byte[] signature) {
+        try {
+            Signature ecdsaVerify = signatures.get();
+            ecdsaVerify.initVerify(publicKey);
+            ecdsaVerify.update(message);
+            return ecdsaVerify.verify(signature);
+        }
+        catch (InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (SignatureException e) {
+            // Malformed signature encoding
+            return false;
+        }
+    }
+}
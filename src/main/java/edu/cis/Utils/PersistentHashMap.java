@@ -0,0 +1,311 @@
+package edu.cis.Utils;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map, implemented as a hash array mapped trie. Every update returns a new map which shares all
+ * unchanged nodes with the old one, so an update copies only the O(log32 n) nodes on the path to the key, and old
+ * versions stay valid and can be read from any thread without locking.
+ *
+ * Each node uses 5 bits of the key's hash to pick a slot, and only stores the slots in use (indexed by a bitmap).
+ * Keys whose hashes are completely equal end up in a collision node.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V) root.get(key, hash(key), 0);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with a key set to a value, this map is left unchanged
+     *
+     * @param key the key
+     * @param value the value, which must not be null
+     * @return the updated map
+     */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(key, hash(key), 0, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without a key, this map is left unchanged
+     *
+     * @param key the key
+     * @return the updated map, or this map if it does not contain the key
+     */
+    public PersistentHashMap<K, V> remove(K key) {
+        Node newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<K, V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    // Spreads the higher bits of the hash code, since the trie is indexed from the lowest bits
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private interface Node {
+
+        Object get(Object key, int hash, int shift);
+
+        Node put(Object key, int hash, int shift, Object value, boolean[] added);
+
+        // Returns null when the node becomes empty
+        Node remove(Object key, int hash, int shift);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * Node holding up to 32 slots, each either a key and value pair, or null followed by a child node
+     */
+    private static final class BitmapNode implements Node {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        public BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                return ((Node) slotValue).get(key, hash, shift + BITS);
+            }
+            return key.equals(slotKey) ? slotValue : null;
+        }
+
+        @Override
+        public Node put(Object key, int hash, int shift, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, 2 * index);
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy(array, 2 * index, newArray, 2 * index + 2, array.length - 2 * index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                Node child = (Node) slotValue;
+                Node newChild = child.put(key, hash, shift + BITS, value, added);
+                return newChild == child ? this : withSlot(index, null, newChild);
+            }
+            if (key.equals(slotKey)) {
+                return slotValue == value ? this : withSlot(index, slotKey, value);
+            }
+            // Two different keys in the same slot, push both down into a new child
+            added[0] = true;
+            Node child = createNode(shift + BITS, slotKey, hash(slotKey), slotValue, key, hash, value);
+            return withSlot(index, null, child);
+        }
+
+        @Override
+        public Node remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slotKey = array[2 * index];
+            Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                Node child = (Node) slotValue;
+                Node newChild = child.remove(key, hash, shift + BITS);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    // Pull a child holding a single pair back up, so removals keep the trie shallow
+                    if (newChild instanceof BitmapNode && ((BitmapNode) newChild).array.length == 2
+                            && ((BitmapNode) newChild).array[0] != null) {
+                        Object[] pair = ((BitmapNode) newChild).array;
+                        return withSlot(index, pair[0], pair[1]);
+                    }
+                    return withSlot(index, null, newChild);
+                }
+                return withoutSlot(bit, index);
+            }
+            if (key.equals(slotKey)) {
+                return withoutSlot(bit, index);
+            }
+            return this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                }
+                else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        private BitmapNode withSlot(int index, Object key, Object value) {
+            Object[] newArray = array.clone();
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private BitmapNode withoutSlot(int bit, int index) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            System.arraycopy(array, 2 * index + 2, newArray, 2 * index, array.length - 2 * index - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        private static Node createNode(int shift, Object key1, int hash1, Object value1,
+                                       Object key2, int hash2, Object value2) {
+            if (shift >= Integer.SIZE) {
+                return new CollisionNode(new Object[]{key1, value1, key2, value2});
+            }
+            int bit1 = 1 << ((hash1 >>> shift) & MASK);
+            int bit2 = 1 << ((hash2 >>> shift) & MASK);
+            if (bit1 == bit2) {
+                return new BitmapNode(bit1, new Object[]{null,
+                        createNode(shift + BITS, key1, hash1, value1, key2, hash2, value2)});
+            }
+            if (Integer.compareUnsigned(bit1, bit2) < 0) {
+                return new BitmapNode(bit1 | bit2, new Object[]{key1, value1, key2, value2});
+            }
+            return new BitmapNode(bit1 | bit2, new Object[]{key2, value2, key1, value1});
+        }
+    }
+
+    /**
+     * Node holding key and value pairs whose hashes are all equal, searched linearly
+     */
+    private static final class CollisionNode implements Node {
+
+        private final Object[] array;
+
+        public CollisionNode(Object[] array) {
+            this.array = array;
+        }
+
+        private int find(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object get(Object key, int hash, int shift) {
+            int index = find(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node put(Object key, int hash, int shift, Object value, boolean[] added) {
+            int index = find(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(newArray);
+            }
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(newArray);
+        }
+
+        @Override
+        public Node remove(Object key, int hash, int shift) {
+            int index = find(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new CollisionNode(newArray);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+}
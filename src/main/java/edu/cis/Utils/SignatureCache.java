@@ -0,0 +1,74 @@
+package edu.cis.Utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread safe set of signature checks that have already succeeded, identified by a hash which covers the
+ * public key, message and signature. When the cache is full the oldest entries are evicted first.
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class SignatureCache {
+
+    private final int capacity;
+    private final ConcurrentHashMap<Hash256, Boolean> entries;
+    private final ConcurrentLinkedQueue<Hash256> insertionOrder;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public SignatureCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>();
+        this.insertionOrder = new ConcurrentLinkedQueue<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Checks whether a signature check has already succeeded, and counts the lookup as a hit or a miss
+     *
+     * @param key the hash identifying the signature check
+     * @return a boolean representing whether the check is in the cache
+     */
+    public boolean contains(Hash256 key) {
+        if (entries.containsKey(key)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Adds a successful signature check, evicting the oldest entries if the cache is full
+     *
+     * @param key the hash identifying the signature check
+     */
+    public void add(Hash256 key) {
+        if (entries.putIfAbsent(key, Boolean.TRUE) == null) {
+            insertionOrder.add(key);
+            while (entries.size() > capacity) {
+                Hash256 oldest = insertionOrder.poll();
+                if (oldest == null) {
+                    break;
+                }
+                entries.remove(oldest);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,34 @@
+package edu.cis.Utils;
+
+import java.security.PublicKey;
+
+/**
+ * A signature that is waiting to be verified, along with the public key and message it should be verified against
+ *
+ * @author Isaac Lam
+ * @version 1.0
+ */
+public class SignatureCheck {
+
+    private final PublicKey publicKey;
+    private final String message;
+    private final String signature;
+
+    public SignatureCheck(PublicKey publicKey, String message, String signature) {
+        this.publicKey = publicKey;
+        this.message = message;
+        this.signature = signature;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+}
@@ -1,4 +1,1062 @@
 package edu.cis;
 
+import edu.cis.Controller.BlockTemplate;
+import edu.cis.Controller.Miner;
+import edu.cis.Controller.Network;
+import edu.cis.Controller.Node;
+import edu.cis.Model.*;
+import edu.cis.Utils.Constants;
+import edu.cis.Utils.Hash256;
+import edu.cis.Utils.Helper;
+import edu.cis.Utils.SignatureCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class BlockChainTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Helper helper;
+
+    @Before
+    public void setup() {
+        helper = Helper.getInstance();
+    }
+
+    @Test
+    public void MineBlockTest() throws BlockChainException {
+        Miner miner = new Miner();
+        Block genesis = Block.genesis(miner);
+        Assert.assertTrue(miner.mineBlock(genesis));
+        Assert.assertTrue(helper.meetsDifficulty(genesis.getHash().getBytes(), Constants.miningDifficulty));
+        Assert.assertTrue(miner.getHashRate() > 0);
+
+        Block block = new Block(genesis.getHash());
+        block.addTransaction(Block.genesis(miner).getAllTransactions().get(0));
+        Assert.assertTrue(miner.mineBlock(block));
+        Assert.assertFalse(miner.receiveBlock(block));
+    }
+
+    @Test
+    public void RepeatedCoinBaseTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+
+        // Spend only the first output of the coinbase
+        TxOutput prevOutput = coinBase.getOutputs().get(0);
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(new TxInput(coinBase.getHash(), 0, helper.generateSig(keyPair.getPrivate(),
+                                                                         prevOutput.getHash().toString()),
+                               keyPair.getPublic()));
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        outputs.add(new TxOutput(prevOutput.getAmount(), helper.pubKeyToHexAddr(keyPair.getPublic())));
+        Block block = new Block(genesis.getHash());
+        block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        block.addTransaction(new Transaction(inputs, outputs));
+        Assert.assertTrue(miner.mineBlock(block));
+
+        // Repeating the coinbase would overwrite its unspent second output
+        Block repeated = new Block(block.getHash());
+        repeated.addTransaction(coinBase);
+        Assert.assertFalse(miner.mineBlock(repeated));
+
+        // So is a second genesis block, which has no parent to connect to
+        Block secondGenesis = new Block(Hash256.ZERO);
+        secondGenesis.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertFalse(miner.mineBlock(secondGenesis));
+
+        // The node is still usable afterwards
+        Block next = new Block(block.getHash());
+        next.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertTrue(miner.mineBlock(next));
+        Assert.assertEquals(next.getHash(), miner.getBlockTemplate().getPrevHash());
+    }
+
+    @Test
+    public void MeetsDifficultyTest() {
+        Assert.assertTrue(helper.meetsDifficulty(new byte[]{0, 0, 0x0f, 0x12}, 5));
+        Assert.assertFalse(helper.meetsDifficulty(new byte[]{0, 0, 0x1f, 0x12}, 5));
+        Assert.assertTrue(helper.meetsDifficulty(new byte[]{0, 0, 0x1f, 0x12}, 4));
+        Assert.assertFalse(helper.meetsDifficulty(new byte[]{0, 1, 0x00, 0x12}, 4));
+    }
+
+    @Test
+    public void ValidateSpendTest() throws BlockChainException {
+        for (boolean parallel : new boolean[]{false, true}) {
+            Miner miner = new Miner();
+            miner.setParallelValidation(parallel);
+            KeyPair keyPair = helper.generateKeyPair();
+            Block genesis = new Block(Hash256.ZERO);
+            Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+            genesis.addTransaction(coinBase);
+            Assert.assertTrue(miner.mineBlock(genesis));
+
+            // Spend the genesis output with a bad signature, then with a valid one
+            Block badBlock = new Block(genesis.getHash());
+            badBlock.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+            badBlock.addTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, "LilCoin"));
+            Assert.assertFalse(miner.mineBlock(badBlock));
+
+            Block block = new Block(genesis.getHash());
+            block.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+            block.addTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null));
+            Assert.assertTrue(miner.mineBlock(block));
+
+            // The output is now spent
+            Block doubleSpend = new Block(block.getHash());
+            doubleSpend.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+            doubleSpend.addTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null));
+            Assert.assertFalse(miner.mineBlock(doubleSpend));
+        }
+    }
+
+    @Test
+    public void SignatureCacheTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+        Assert.assertTrue(miner.receiveTransaction(transaction));
+        Assert.assertEquals(0, miner.getSignatureCache().getHits());
+        Assert.assertEquals(2, miner.getSignatureCache().size());
+
+        // Block validation reuses the checks done when the transaction entered the pool
+        Block block = new Block(genesis.getHash());
+        block.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+        block.addTransaction(transaction);
+        Assert.assertTrue(miner.mineBlock(block));
+        Assert.assertEquals(2, miner.getSignatureCache().getHits());
+
+        SignatureCache cache = new SignatureCache(2);
+        for (int i = 0; i < 5; i++) {
+            cache.add(Hash256.wrap(helper.SHA256(new byte[]{(byte) i})));
+        }
+        Assert.assertEquals(2, cache.size());
+        Assert.assertTrue(cache.contains(Hash256.wrap(helper.SHA256(new byte[]{4}))));
+        Assert.assertFalse(cache.contains(Hash256.wrap(helper.SHA256(new byte[]{0}))));
+    }
+
+    @Test
+    public void MempoolTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+
+        // A pool transaction can be spent before it is in a block, but not twice
+        KeyPair parentReceiver = helper.generateKeyPair();
+        Transaction parent = spend(coinBase, keyPair, parentReceiver, 40, null);
+        KeyPair childReceiver = helper.generateKeyPair();
+        Transaction child = spend(parent, parentReceiver, childReceiver, 39, null);
+        Assert.assertTrue(miner.receiveTransaction(parent));
+        Assert.assertFalse(miner.receiveTransaction(parent));
+        Assert.assertTrue(miner.receiveTransaction(child));
+        Assert.assertFalse(miner.receiveTransaction(spend(parent, parentReceiver, helper.generateKeyPair(), 30,
+                                                          null)));
+        Mempool mempool = miner.getMempool();
+        Assert.assertEquals(2, mempool.size());
+        Assert.assertEquals(10, mempool.getEntry(parent.getHash()).getFee());
+        Assert.assertEquals(parent, mempool.getSpender(new OutPoint(coinBase.getHash(), 1)));
+        Assert.assertEquals(parent, mempool.getEntriesByFeeRate().first().getTransaction());
+        Assert.assertEquals(child, mempool.getEntriesByFeeRate().last().getTransaction());
+
+        // An output spent twice by the same transaction only counts once, so paying out both copies is rejected
+        Transaction grandChild = spend(child, childReceiver, helper.generateKeyPair(), 78, null);
+        ArrayList<TxInput> repeatedInputs = new ArrayList<>(grandChild.getInputs());
+        repeatedInputs.add(grandChild.getInputs().get(0));
+        Assert.assertFalse(miner.receiveTransaction(new Transaction(repeatedInputs, grandChild.getOutputs())));
+        Assert.assertEquals(2, mempool.size());
+
+        // A block spending the same output evicts the parent along with the child
+        Block block = new Block(genesis.getHash());
+        block.addTransaction(coinBase(Constants.miningReward + 5, helper.generateKeyPair()));
+        block.addTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 45, null));
+        Assert.assertTrue(miner.mineBlock(block));
+        Assert.assertEquals(0, mempool.size());
+        Assert.assertNull(mempool.getSpender(new OutPoint(coinBase.getHash(), 1)));
+        Assert.assertTrue(mempool.getEntriesByFeeRate().isEmpty());
+    }
+
+    @Test
+    public void BlockTemplateTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+        Assert.assertEquals(genesis.getHash(), miner.getBlockTemplate().getPrevHash());
+
+        // The child pays a higher fee rate, but still has to come after its parent
+        KeyPair parentReceiver = helper.generateKeyPair();
+        Transaction parent = spend(coinBase, keyPair, parentReceiver, 49, null);
+        Transaction child = spend(parent, parentReceiver, helper.generateKeyPair(), 40, null);
+        Assert.assertTrue(miner.receiveTransaction(parent));
+        Assert.assertTrue(miner.receiveTransaction(child));
+        Assert.assertEquals(10, miner.getBlockTemplate().getTotalFee());
+        Block block = miner.createBlock();
+        Assert.assertEquals(3, block.getAllTransactions().size());
+        Assert.assertEquals(parent, block.getAllTransactions().get(1));
+        Assert.assertEquals(child, block.getAllTransactions().get(2));
+        Assert.assertEquals(Constants.miningReward + 10, block.getAllTransactions().get(0).getTotalAmount());
+        Assert.assertTrue(miner.mineBlock(block));
+
+        // The mined transactions leave the template, and the next block only has a coinbase
+        Assert.assertEquals(block.getHash(), miner.getBlockTemplate().getPrevHash());
+        Assert.assertEquals(0, miner.getBlockTemplate().getSize());
+        Block nextBlock = miner.createBlock();
+        Assert.assertEquals(1, nextBlock.getAllTransactions().size());
+        Assert.assertTrue(miner.mineBlock(nextBlock));
+
+        // Only what fits is picked, and a child paying a higher fee rate waits for its parent
+        Mempool mempool = new Mempool();
+        BlockTemplate template = new BlockTemplate(mempool, WireFormat.getTransactionSize(parent)
+                                                            + WireFormat.getTransactionSize(child));
+        mempool.add(parent, 1);
+        mempool.add(child, 9);
+        template.addTransaction(child.getHash());
+        Assert.assertTrue(template.getTransactions().isEmpty());
+        template.addTransaction(parent.getHash());
+        Assert.assertEquals(parent, template.getTransactions().get(0));
+        Assert.assertEquals(child, template.getTransactions().get(1));
+        Transaction other = spend(coinBase(5, keyPair), keyPair, helper.generateKeyPair(), 4, null);
+        mempool.add(other, 1);
+        template.addTransaction(other.getHash());
+        Assert.assertEquals(2, template.getTransactions().size());
+
+        // Once the block holding them connects, the freed space is filled
+        template.update(block.getHash(), block, mempool.removeForBlock(block));
+        Assert.assertEquals(1, template.getTransactions().size());
+        Assert.assertEquals(other, template.getTransactions().get(0));
+        Assert.assertEquals(1, template.getTotalFee());
+
+        // A block conflicting with a picked transaction drops it along with its descendants
+        mempool.add(spend(other, keyPair, helper.generateKeyPair(), 3, null), 1);
+        Block conflicting = new Block(block.getHash());
+        conflicting.addTransaction(spend(coinBase(5, keyPair), keyPair, helper.generateKeyPair(), 2, null));
+        template.update(conflicting.getHash(), conflicting, mempool.removeForBlock(conflicting));
+        Assert.assertTrue(template.getTransactions().isEmpty());
+        Assert.assertEquals(0, template.getSize());
+        Assert.assertEquals(0, mempool.size());
+
+        // A child waiting for its parent is picked once a block confirms the parent
+        mempool.add(parent, 1);
+        mempool.add(child, 9);
+        template.addTransaction(child.getHash());
+        Block parentBlock = new Block(genesis.getHash());
+        parentBlock.addTransaction(coinBase(Constants.miningReward + 1, helper.generateKeyPair()));
+        parentBlock.addTransaction(parent);
+        template.update(parentBlock.getHash(), parentBlock, mempool.removeForBlock(parentBlock));
+        Assert.assertEquals(1, template.getTransactions().size());
+        Assert.assertEquals(child, template.getTransactions().get(0));
+        Assert.assertEquals(9, template.getTotalFee());
+    }
+
+    @Test
+    public void NetworkTest() throws BlockChainException, InterruptedException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(new Miner().mineBlock(genesis));
+
+        // A long line of nodes relays through the inboxes, not through nested calls
+        Network network = new Network(4);
+        ArrayList<Node> nodes = new ArrayList<>();
+        SignatureCache signatureCache = new SignatureCache(Constants.signatureCacheSize);
+        for (int i = 0; i < 2000; i++) {
+            Node node = new Node();
+            node.setSignatureCache(signatureCache);
+            if (!nodes.isEmpty()) {
+                network.connect(nodes.get(nodes.size() - 1), node);
+            }
+            nodes.add(node);
+        }
+        network.send(nodes.get(0), genesis);
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(2000, network.getAcceptCount(genesis.getHash()));
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+        network.send(nodes.get(1000), transaction);
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(2000, network.getAcceptCount(transaction.getHash()));
+        Assert.assertTrue(nodes.get(1999).getMempool().contains(transaction.getHash()));
+        network.shutdown();
+    }
+
+    @Test
+    public void NetworkMeshTest() throws BlockChainException, InterruptedException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(new Miner().mineBlock(genesis));
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+
+        // In a full mesh every node is offered each object by all its peers, but only downloads it once
+        Network mesh = new Network(4);
+        ArrayList<Node> nodes = new ArrayList<>();
+        SignatureCache signatureCache = new SignatureCache(Constants.signatureCacheSize);
+        for (int i = 0; i < 30; i++) {
+            Node node = new Node();
+            node.setSignatureCache(signatureCache);
+            for (Node other : nodes) {
+                mesh.connect(other, node);
+            }
+            nodes.add(node);
+        }
+        mesh.send(nodes.get(0), genesis);
+        Assert.assertTrue(mesh.awaitIdle(30, TimeUnit.SECONDS));
+        mesh.send(nodes.get(7), transaction);
+        Assert.assertTrue(mesh.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(30, mesh.getAcceptCount(genesis.getHash()));
+        Assert.assertEquals(30, mesh.getAcceptCount(transaction.getHash()));
+        Assert.assertEquals(2 * 29, mesh.getObjectCount());
+        mesh.shutdown();
+    }
+
+    @Test
+    public void NetworkLatencyTest() throws BlockChainException, InterruptedException {
+        Block genesis = new Block(Hash256.ZERO);
+        genesis.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertTrue(new Miner().mineBlock(genesis));
+
+        // Messages wait for the latency, and for the bandwidth of the link
+        Network slowNetwork = new Network(2);
+        Node first = new Node();
+        Node second = new Node();
+        slowNetwork.connect(first, second, 50, 1000);
+        slowNetwork.send(first, genesis);
+        Assert.assertTrue(slowNetwork.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(2, slowNetwork.getAcceptCount(genesis.getHash()));
+        long transferMillis = (2 + WireFormat.getBlockSize(genesis)) * 1000L / 1000;
+        Assert.assertTrue(slowNetwork.getPropagationNanos(genesis.getHash())
+                          >= TimeUnit.MILLISECONDS.toNanos(50 + transferMillis));
+        slowNetwork.shutdown();
+    }
+
+    @Test
+    public void MinerNetworkTest() throws BlockChainException, InterruptedException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(new Miner().mineBlock(genesis));
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+
+        // A miner in the network hands the blocks it finds to the worker handling its messages
+        Network network = new Network(2);
+        Miner miner = new Miner();
+        Miner peer = new Miner();
+        network.connect(miner, peer);
+        network.send(peer, genesis);
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        network.send(peer, transaction);
+        Block minedBlock = miner.createBlock();
+        Assert.assertEquals(genesis.getHash(), minedBlock.getPrevHash());
+        Assert.assertTrue(miner.mineBlock(minedBlock));
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(minedBlock.getHash(), peer.getBlockTemplate().getPrevHash());
+        Assert.assertEquals(minedBlock.getHash(), miner.getBlockTemplate().getPrevHash());
+        network.shutdown();
+    }
+
+    @Test
+    public void RequestRetryTest() throws BlockChainException, InterruptedException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(new Miner().mineBlock(genesis));
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+
+        // The silent announcer's worker is held up by a block until the end of the test, so it announces the
+        // transaction but never answers the request for it
+        Block stallBlock = new Block(genesis.getHash());
+        stallBlock.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        CountDownLatch release = new CountDownLatch(1);
+        Node silentAnnouncer = new Node() {
+            @Override
+            public boolean receiveBlock(Block block) {
+                if (block == stallBlock) {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.receiveBlock(block);
+            }
+        };
+        Node announcer = new Node();
+        Node requester = new Node();
+        Network network = new Network(4);
+        network.connect(silentAnnouncer, requester);
+        // The second announcement arrives while the request to the silent announcer is pending
+        network.connect(announcer, requester, Constants.requestTimeoutMillis / 2, 0);
+        for (Node node : new Node[]{silentAnnouncer, announcer, requester}) {
+            network.send(node, genesis);
+        }
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        network.send(silentAnnouncer, transaction);
+        network.send(silentAnnouncer, stallBlock);
+        network.send(announcer, transaction);
+
+        // The network never becomes idle while the silent announcer is held up, so wait for the requester instead
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (network.getAcceptCount(transaction.getHash()) < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, network.getAcceptCount(transaction.getHash()));
+        Assert.assertEquals(1, release.getCount());
+        release.countDown();
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        network.shutdown();
+    }
+
+    @Test
+    public void CompactBlockTest() throws BlockChainException, InterruptedException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Miner miner = new Miner();
+        Assert.assertTrue(miner.mineBlock(genesis));
+        // A chain of pool transactions, each paying a fee of 1
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        Transaction prevTransaction = coinBase;
+        KeyPair owner = keyPair;
+        for (int i = 0; i < 10; i++) {
+            KeyPair receiver = helper.generateKeyPair();
+            prevTransaction = spend(prevTransaction, owner, receiver, Constants.miningReward - 1 - i, null);
+            transactions.add(prevTransaction);
+            Assert.assertTrue(miner.receiveTransaction(prevTransaction));
+            owner = receiver;
+        }
+        Block block = miner.createBlock();
+        Assert.assertTrue(miner.mineBlock(block));
+
+        Network network = new Network(4);
+        SignatureCache signatureCache = new SignatureCache(Constants.signatureCacheSize);
+        ArrayList<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Node node = new Node();
+            node.setSignatureCache(signatureCache);
+            if (!nodes.isEmpty()) {
+                network.connect(nodes.get(nodes.size() - 1), node);
+            }
+            nodes.add(node);
+        }
+        network.send(nodes.get(0), genesis);
+        for (Transaction transaction : transactions) {
+            network.send(nodes.get(0), transaction);
+        }
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+
+        // Peers holding every transaction rebuild the block from their pools
+        long byteCount = network.getByteCount();
+        network.send(nodes.get(0), block);
+        Assert.assertTrue(network.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(10, network.getAcceptCount(block.getHash()));
+        Assert.assertTrue((network.getByteCount() - byteCount) * 4 < 9 * (2 + WireFormat.getBlockSize(block)));
+        Assert.assertEquals(0, nodes.get(9).getMempool().size());
+
+        network.shutdown();
+
+        // A peer which never received the transactions requests them from the sender
+        Network otherNetwork = new Network(2);
+        Node sender = new Node();
+        Node receiver = new Node();
+        otherNetwork.addNode(sender);
+        otherNetwork.send(sender, genesis);
+        for (Transaction transaction : transactions) {
+            otherNetwork.send(sender, transaction);
+        }
+        Assert.assertTrue(otherNetwork.awaitIdle(30, TimeUnit.SECONDS));
+        otherNetwork.connect(sender, receiver);
+        otherNetwork.send(receiver, genesis);
+        Assert.assertTrue(otherNetwork.awaitIdle(30, TimeUnit.SECONDS));
+        otherNetwork.send(sender, block);
+        Assert.assertTrue(otherNetwork.awaitIdle(30, TimeUnit.SECONDS));
+        Assert.assertEquals(2, otherNetwork.getAcceptCount(block.getHash()));
+        otherNetwork.shutdown();
+
+        CompactBlock compactBlock = CompactBlock.fromBlock(block, 42, new HashSet<>());
+        Mempool mempool = new Mempool();
+        for (int i = 0; i < 5; i++) {
+            mempool.add(transactions.get(i), 1);
+        }
+        Transaction[] matched = compactBlock.match(mempool);
+        Assert.assertEquals(Arrays.asList(6, 7, 8, 9, 10), CompactBlock.getMissing(matched));
+        for (int i = 5; i < 10; i++) {
+            matched[i + 1] = transactions.get(i);
+        }
+        Assert.assertEquals(block.getHash(), compactBlock.toBlock(matched).getHash());
+        // Transactions in the wrong place do not match the header
+        matched[1] = transactions.get(1);
+        try {
+            compactBlock.toBlock(matched);
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+    }
+
+    @Test
+    public void OrphanBlockTest() throws BlockChainException {
+        Miner miner = new Miner();
+        Block genesis = new Block(Hash256.ZERO);
+        genesis.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertTrue(miner.mineBlock(genesis));
+        ArrayList<Block> blocks = new ArrayList<>();
+        Block prevBlock = genesis;
+        for (int i = 0; i < 4; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+            blocks.add(block);
+            prevBlock = block;
+        }
+        // A fork next to the second block
+        Block fork = new Block(blocks.get(0).getHash());
+        fork.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertTrue(miner.mineBlock(fork));
+
+        // Blocks arriving in reverse order wait for their parent, then connect at once
+        Miner receiver = new Miner();
+        OrphanPool orphanPool = receiver.getOrphanPool();
+        Assert.assertTrue(receiver.receiveBlock(genesis));
+        for (int i = blocks.size() - 1; i > 0; i--) {
+            Assert.assertFalse(receiver.receiveBlock(blocks.get(i)));
+        }
+        Assert.assertFalse(receiver.receiveBlock(fork));
+        Assert.assertFalse(receiver.receiveBlock(blocks.get(3)));
+        Assert.assertEquals(4, orphanPool.size());
+        Assert.assertTrue(orphanPool.contains(fork.getHash()));
+        Assert.assertTrue(receiver.receiveBlock(blocks.get(0)));
+        Assert.assertEquals(0, orphanPool.size());
+        Assert.assertEquals(0, orphanPool.getTotalSize());
+        Assert.assertEquals(blocks.get(3).getHash(), receiver.getBlockTemplate().getPrevHash());
+        Assert.assertFalse(receiver.receiveBlock(fork));
+
+        // Orphans building on an invalid block are dropped along with it
+        Block invalid = new Block(blocks.get(3).getHash());
+        invalid.addTransaction(coinBase(Constants.miningReward + 1, helper.generateKeyPair()));
+        Assert.assertFalse(miner.mineBlock(invalid));
+        Block invalidChild = new Block(invalid.getHash());
+        invalidChild.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertFalse(miner.mineBlock(invalidChild));
+        Assert.assertFalse(receiver.receiveBlock(invalidChild));
+        Assert.assertEquals(1, orphanPool.size());
+        Assert.assertFalse(receiver.receiveBlock(invalid));
+        Assert.assertEquals(0, orphanPool.size());
+
+        // The oldest orphans are evicted by size, and every orphan by age
+        int blockSize = WireFormat.getBlockSize(blocks.get(0));
+        OrphanPool smallPool = new OrphanPool(2 * blockSize, 60 * 1000);
+        for (Block block : blocks) {
+            Assert.assertTrue(smallPool.add(block));
+        }
+        Assert.assertEquals(2, smallPool.size());
+        Assert.assertFalse(smallPool.contains(blocks.get(1).getHash()));
+        Assert.assertTrue(smallPool.contains(blocks.get(3).getHash()));
+        Assert.assertEquals(2 * blockSize, smallPool.getTotalSize());
+        Assert.assertTrue(smallPool.removeChildren(blocks.get(0).getHash()).isEmpty());
+        smallPool.removeExpired(System.currentTimeMillis() + 60 * 1000 + 1);
+        Assert.assertEquals(0, smallPool.size());
+        Assert.assertEquals(0, smallPool.getTotalSize());
+        Assert.assertTrue(smallPool.removeChildren(blocks.get(2).getHash()).isEmpty());
+    }
+
+    @Test
+    public void WalletBalanceTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+
+        Transaction transaction = spend(coinBase, keyPair, miner.generateAddress(), 40, null);
+        Assert.assertTrue(miner.receiveTransaction(transaction));
+        Block prevBlock = new Block(genesis.getHash());
+        prevBlock.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+        prevBlock.addTransaction(transaction);
+        Assert.assertTrue(miner.mineBlock(prevBlock));
+        Assert.assertEquals(0, miner.getBalance());
+
+        // Balance only counts once the block is buried deep enough
+        for (int i = 0; i < Constants.blocksToWaitForConfirm; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+            prevBlock = block;
+        }
+        Assert.assertEquals(40, miner.getBalance());
+
+        // The reward of a block created by the miner is paid to its own address
+        Block minedBlock = miner.createBlock();
+        Assert.assertTrue(miner.mineBlock(minedBlock));
+        Assert.assertEquals(40, miner.getBalance());
+        for (int i = 0; i < Constants.blocksToWaitForConfirm; i++) {
+            Block block = new Block(miner.getBlockTemplate().getPrevHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+        }
+        Assert.assertEquals(40 + Constants.miningReward, miner.getBalance());
+    }
+
+    @Test
+    public void MerkleProofTest() throws BlockChainException, NoSuchAlgorithmException {
+        Block block = new Block(Hash256.ZERO);
+        ArrayList<Hash256> hashes = new ArrayList<>();
+        for (int count = 1; count <= 7; count++) {
+            block.addTransaction(coinBase(count, helper.generateKeyPair()));
+            hashes.add(block.getAllTransactions().get(count - 1).getHash());
+            Hash256 merkleRoot = block.getMerkleRoot();
+            // Roots computed by hand, where a node without a sibling moves up a level unchanged
+            if (count == 3) {
+                Assert.assertEquals(hashPair(hashPair(hashes.get(0), hashes.get(1)), hashes.get(2)), merkleRoot);
+            }
+            else if (count == 5) {
+                Assert.assertEquals(hashPair(hashPair(hashPair(hashes.get(0), hashes.get(1)),
+                                                      hashPair(hashes.get(2), hashes.get(3))), hashes.get(4)),
+                                    merkleRoot);
+            }
+            for (Transaction transaction : block.getAllTransactions()) {
+                MerkleProof proof = block.getMerkleProof(transaction.getHash());
+                Assert.assertTrue(Block.verifyMerkleProof(transaction.getHash(), proof, merkleRoot));
+                Assert.assertFalse(Block.verifyMerkleProof(Hash256.ZERO, proof, merkleRoot));
+            }
+        }
+        try {
+            block.getMerkleProof(Hash256.ZERO);
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+    }
+
+    @Test
+    public void UTXOReorgTest() throws BlockChainException {
+        Miner miner = new Miner();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+
+        Block spendBlock = new Block(genesis.getHash());
+        spendBlock.addTransaction(coinBase(Constants.miningReward + 10, helper.generateKeyPair()));
+        spendBlock.addTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null));
+        Assert.assertTrue(miner.mineBlock(spendBlock));
+        Assert.assertFalse(miner.receiveTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 30, null)));
+
+        // A longer fork without the spend makes the genesis outputs unspent again
+        Block prevBlock = genesis;
+        for (int i = 0; i < 2; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+            prevBlock = block;
+        }
+        Assert.assertTrue(miner.receiveTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 30, null)));
+
+        // Sets are immutable, and disconnecting a block gives back exactly the set it was connected to
+        UTXOSet genesisUTXO = new UTXOSet().connectBlock(genesis, null);
+        BlockUndo undo = new BlockUndo();
+        UTXOSet spendUTXO = genesisUTXO.connectBlock(spendBlock, undo);
+        Assert.assertEquals(2, genesisUTXO.size());
+        Assert.assertEquals(3, spendUTXO.size());
+        Assert.assertNull(spendUTXO.get(new OutPoint(coinBase.getHash(), 1)));
+        UTXOSet disconnectedUTXO = spendUTXO.disconnectBlock(spendBlock, undo);
+        Assert.assertEquals(2, disconnectedUTXO.size());
+        Assert.assertEquals(1, disconnectedUTXO.get(new OutPoint(coinBase.getHash(), 1)).getAmount());
+        try {
+            spendUTXO.connectBlock(spendBlock, null);
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+        Assert.assertEquals(3, spendUTXO.size());
+    }
+
+    @Test
+    public void ContainerBlockTest() throws BlockChainException {
+        BlockChain blockChain = new BlockChain();
+        Block genesis = new Block(Hash256.ZERO);
+        genesis.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        blockChain.addBlock(genesis);
+
+        // The same transaction in two forks, the main chain's block is returned once it is longer
+        Transaction transaction = coinBase(Constants.miningReward, helper.generateKeyPair());
+        Block fork1 = new Block(genesis.getHash());
+        fork1.addTransaction(transaction);
+        blockChain.addBlock(fork1);
+        Block fork2 = new Block(genesis.getHash());
+        fork2.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        fork2.addTransaction(transaction);
+        blockChain.addBlock(fork2);
+        Block fork2Child = new Block(fork2.getHash());
+        fork2Child.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        blockChain.addBlock(fork2Child);
+
+        Assert.assertEquals(fork2, blockChain.getContainerBlock(transaction.getHash()));
+        Assert.assertEquals(transaction, blockChain.getTransaction(transaction.getHash()));
+        Assert.assertEquals(genesis, blockChain.getContainerBlock(genesis.getAllTransactions().get(0).getHash()));
+        try {
+            blockChain.getTransaction(Hash256.ZERO);
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+    }
+
+    @Test
+    public void AncestorTest() throws BlockChainException {
+        BlockChain blockChain = new BlockChain();
+        ArrayList<Block> blocks = new ArrayList<>();
+        Block prevBlock = new Block(Hash256.ZERO);
+        blockChain.addBlock(prevBlock);
+        blocks.add(prevBlock);
+        for (int i = 1; i < 300; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.setProofOfWork(i, 0);
+            blockChain.addBlock(block);
+            blocks.add(block);
+            prevBlock = block;
+        }
+        for (int height = 0; height < blocks.size(); height += 7) {
+            Assert.assertEquals(blocks.get(height), blockChain.getAncestor(prevBlock.getHash(), height));
+            Assert.assertEquals(blocks.get(height), blockChain.getBlock(height));
+        }
+        Assert.assertEquals(300, blockChain.getConfirmations(blocks.get(0).getHash()));
+
+        // A fork of the same height is kept, the first tail stays on the main chain until it is overtaken
+        Block fork = new Block(blocks.get(298).getHash());
+        fork.setProofOfWork(-1, 0);
+        blockChain.addBlock(fork);
+        Assert.assertEquals(2, blockChain.getTails().size());
+        Assert.assertEquals(prevBlock, blockChain.getCurrTail());
+        Assert.assertEquals(0, blockChain.getConfirmations(fork.getHash()));
+
+        Block forkChild = new Block(fork.getHash());
+        forkChild.setProofOfWork(-2, 0);
+        blockChain.addBlock(forkChild);
+        Assert.assertEquals(2, blockChain.getTails().size());
+        Assert.assertEquals(forkChild, blockChain.getCurrTail());
+        Assert.assertFalse(blockChain.isInMainChain(prevBlock.getHash()));
+        Assert.assertEquals(2, blockChain.getConfirmations(fork.getHash()));
+        Assert.assertEquals(blocks.get(100), blockChain.getAncestor(forkChild.getHash(), 100));
+        Assert.assertEquals(fork, blockChain.getBlock(299));
+
+        // Headers of the main chain are served without loading the bodies
+        ByteBuffer headers = blockChain.getHeaders(298, 10);
+        Assert.assertEquals(3 * Block.HEADER_SIZE, headers.remaining());
+        HeaderChain headerChain = new HeaderChain();
+        for (int i = 0; headers.hasRemaining(); i++) {
+            headerChain.add(headers, i - 1);
+        }
+        Assert.assertEquals(forkChild.getHash(), headerChain.getHash(2));
+        Assert.assertEquals(fork.getHash(), headerChain.getPrevHash(2));
+        Assert.assertEquals(-2, headerChain.getTimestamp(2));
+        Assert.assertEquals(2, headerChain.getHeight(2));
+    }
+
+    @Test
+    public void HeaderChainTest() {
+        HeaderChain headerChain = new HeaderChain();
+        ArrayList<Block> blocks = new ArrayList<>();
+        Block prevBlock = new Block(Hash256.ZERO);
+        headerChain.add(prevBlock, -1);
+        blocks.add(prevBlock);
+        // Enough headers to grow the packed arrays
+        for (int i = 1; i < 3000; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.setProofOfWork(i, i * 7);
+            headerChain.add(block, i - 1);
+            blocks.add(block);
+            prevBlock = block;
+        }
+        Assert.assertEquals(3000, headerChain.size());
+        for (int i = 0; i < blocks.size(); i += 13) {
+            Block block = blocks.get(i);
+            Assert.assertEquals(block.getHash(), headerChain.getHash(i));
+            Assert.assertEquals(block.getPrevHash(), headerChain.getPrevHash(i));
+            Assert.assertEquals(block.getNonce(), headerChain.getNonce(i));
+            Assert.assertArrayEquals(block.getBytes(), headerChain.getHeader(i));
+            Assert.assertEquals(helper.meetsDifficulty(block.getHash().getBytes(), 2),
+                                headerChain.meetsDifficulty(i, 2));
+        }
+        Assert.assertEquals(2998, headerChain.getPrevIndex(2999));
+        Assert.assertEquals(2999, headerChain.getHeight(2999));
+        Assert.assertSame(headerChain.getHash(2999), headerChain.getHash(2999));
+        for (int height = 0; height < 3000; height += 37) {
+            Assert.assertEquals(height, headerChain.getAncestor(2999, height));
+        }
+        Assert.assertEquals(-1, headerChain.getAncestor(5, 6));
+    }
+
+    @Test
+    public void BlockStoreTest() throws BlockChainException, IOException {
+        File directory = folder.newFolder();
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Block block = new Block(genesis.getHash());
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+        KeyPair minerKeyPair = helper.generateKeyPair();
+        Transaction blockCoinBase = coinBase(Constants.miningReward + 10, minerKeyPair);
+        block.addTransaction(blockCoinBase);
+        block.addTransaction(transaction);
+
+        // A small segment size puts each block in its own segment
+        try (BlockStore blockStore = new BlockStore(directory, 256)) {
+            BlockChain blockChain = new BlockChain(blockStore);
+            blockChain.addBlock(genesis);
+            blockChain.addBlock(block);
+        }
+        Assert.assertTrue(new File(directory, "blk00001.dat").exists());
+        // A record cut off while being appended is dropped when the store is opened again
+        try (FileOutputStream segment = new FileOutputStream(new File(directory, "blk00001.dat"), true)) {
+            segment.write(new byte[]{0, 0, 1, 0, 42});
+        }
+
+        try (BlockStore blockStore = new BlockStore(directory, 256)) {
+            Assert.assertEquals(2, blockStore.size());
+            BlockChain blockChain = new BlockChain(blockStore);
+            Assert.assertEquals(1, blockChain.size());
+            Assert.assertEquals(block.getHash(), blockChain.getCurrTail().getHash());
+            Assert.assertEquals(genesis, blockChain.getContainerBlock(coinBase.getHash()));
+            Transaction stored = blockChain.getTransaction(transaction.getHash());
+            Assert.assertEquals(transaction, stored);
+            Assert.assertEquals(keyPair.getPublic(), stored.getInputs().get(0).getPublicKey());
+        }
+
+        // A node started from the store can validate spends of the stored outputs
+        try (BlockStore blockStore = new BlockStore(directory, 256)) {
+            Node node = new Node(blockStore);
+            Assert.assertFalse(node.receiveTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null)));
+            Assert.assertTrue(node.receiveTransaction(spend(blockCoinBase, minerKeyPair, helper.generateKeyPair(), 40,
+                                                            null)));
+            node.saveSnapshot();
+        }
+
+        // The snapshot holds the outputs left after the tail
+        UTXOSnapshot snapshot = UTXOSnapshot.load(new File(directory, "utxo.dat"));
+        Assert.assertEquals(block.getHash(), snapshot.getBlockHash());
+        Assert.assertEquals(3, snapshot.getUTXOSet().size());
+        Assert.assertNull(snapshot.getUTXOSet().get(new OutPoint(coinBase.getHash(), 0)));
+        Assert.assertEquals(Constants.miningReward + 9,
+                            snapshot.getUTXOSet().get(new OutPoint(blockCoinBase.getHash(), 0)).getAmount());
+        try (BlockStore blockStore = new BlockStore(directory, 256)) {
+            Node node = new Node(blockStore);
+            Assert.assertFalse(node.receiveTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null)));
+            Assert.assertTrue(node.receiveTransaction(spend(blockCoinBase, minerKeyPair, helper.generateKeyPair(), 40,
+                                                            null)));
+        }
+
+        // Snapshots are only saved when the tail moves, and an interval of 0 leaves saving to saveSnapshot
+        Miner miner = new Miner();
+        Block first = new Block(Hash256.ZERO);
+        first.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        miner.mineBlock(first);
+        Block second = new Block(first.getHash());
+        second.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        miner.mineBlock(second);
+        Block sideBlock = new Block(first.getHash());
+        sideBlock.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        miner.mineBlock(sideBlock);
+        File snapshotDirectory = folder.newFolder();
+        File snapshotFile = new File(snapshotDirectory, "utxo.dat");
+        try (BlockStore blockStore = new BlockStore(snapshotDirectory)) {
+            Node node = new Node(blockStore);
+            node.setSnapshotInterval(0);
+            Assert.assertTrue(node.receiveBlock(first));
+            Assert.assertFalse(snapshotFile.exists());
+            node.setSnapshotInterval(1);
+            Assert.assertTrue(node.receiveBlock(second));
+            Assert.assertTrue(snapshotFile.delete());
+            Assert.assertTrue(node.receiveBlock(sideBlock));
+            Assert.assertFalse(snapshotFile.exists());
+        }
+    }
+
+    @Test
+    public void WireFormatTest() throws BlockChainException {
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Block block = new Block(genesis.getHash());
+        block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Transaction transaction = spend(coinBase, keyPair, helper.generateKeyPair(), 40, null);
+        block.addTransaction(transaction);
+        block.setProofOfWork(12345L, 678);
+
+        // Decoded from a buffer, the block hashes the same and its keys are the original keys
+        ByteBuffer message = WireFormat.encode(block);
+        Assert.assertEquals(2 + WireFormat.getBlockSize(block), message.remaining());
+        Block decoded = new WireDecoder(message.duplicate()).readBlockMessage();
+        Assert.assertEquals(block.getHash(), decoded.getHash());
+        Assert.assertEquals(keyPair.getPublic(), decoded.getTransaction(transaction.getHash()).getInputs().get(0)
+                                                        .getPublicKey());
+
+        // Decoded from a stream, several messages one after another
+        ByteBuffer transactionMessage = WireFormat.encode(transaction);
+        byte[] stream = new byte[message.remaining() + transactionMessage.remaining()];
+        message.get(stream, 0, message.remaining());
+        transactionMessage.get(stream, stream.length - transactionMessage.capacity(), transactionMessage.remaining());
+        WireDecoder decoder = new WireDecoder(Channels.newChannel(new ByteArrayInputStream(stream)));
+        Assert.assertEquals(block.getHash(), decoder.readBlockMessage().getHash());
+        Assert.assertEquals(transaction.getHash(), decoder.readTransactionMessage().getHash());
+
+        // Truncated messages and messages of the wrong type are rejected
+        try {
+            new WireDecoder(ByteBuffer.wrap(stream, 0, stream.length / 2)).readBlockMessage();
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+        try {
+            new WireDecoder(WireFormat.encode(transaction)).readBlockMessage();
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+
+        // Coinbase inputs are only read as the input of a block's first transaction, spending the zero hash
+        ByteBuffer badCoinBase = WireFormat.encode(block);
+        badCoinBase.put(2 + Block.HEADER_SIZE + 2, (byte) 1);
+        Block twoCoinBases = new Block(genesis.getHash());
+        twoCoinBases.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        twoCoinBases.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        ByteBuffer[] badMessages = {badCoinBase, WireFormat.encode(twoCoinBases), WireFormat.encode(coinBase)};
+        for (ByteBuffer badMessage : badMessages) {
+            try {
+                WireDecoder badDecoder = new WireDecoder(badMessage);
+                if (badMessage.get(1) == WireFormat.TYPE_BLOCK) {
+                    badDecoder.readBlockMessage();
+                }
+                else {
+                    badDecoder.readTransactionMessage();
+                }
+                Assert.fail();
+            }
+            catch (BlockChainException ignored) { }
+        }
+    }
+
+    @Test
+    public void PruneTest() throws BlockChainException {
+        Miner miner = new Miner();
+        miner.setPruneDepth(2);
+        KeyPair keyPair = helper.generateKeyPair();
+        Block genesis = new Block(Hash256.ZERO);
+        Transaction coinBase = coinBase(Constants.miningReward, keyPair);
+        genesis.addTransaction(coinBase);
+        Assert.assertTrue(miner.mineBlock(genesis));
+        ArrayList<Block> blocks = new ArrayList<>();
+        blocks.add(genesis);
+        for (int i = 0; i < 4; i++) {
+            Block block = new Block(blocks.get(i).getHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+            blocks.add(block);
+        }
+        // Outputs of pruned blocks are still in the UTXO set
+        Assert.assertTrue(miner.receiveTransaction(spend(coinBase, keyPair, helper.generateKeyPair(), 40, null)));
+
+        // A fork within the prune depth can still take over, a deeper one is rejected
+        Block deepFork = new Block(blocks.get(1).getHash());
+        deepFork.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+        Assert.assertFalse(miner.mineBlock(deepFork));
+        Block prevBlock = blocks.get(3);
+        for (int i = 0; i < 2; i++) {
+            Block block = new Block(prevBlock.getHash());
+            block.addTransaction(coinBase(Constants.miningReward, helper.generateKeyPair()));
+            Assert.assertTrue(miner.mineBlock(block));
+            prevBlock = block;
+        }
+
+        BlockChain blockChain = new BlockChain();
+        for (Block block : blocks) {
+            blockChain.addBlock(block);
+        }
+        Assert.assertEquals(2, blockChain.pruneBlocks(1).size());
+        Assert.assertArrayEquals(genesis.getBytes(), blockChain.getHeader(genesis.getHash()));
+        Assert.assertTrue(blockChain.isConfirmed(genesis.getHash()));
+        Assert.assertEquals(blocks.get(2), blockChain.getBlock(blocks.get(2).getHash()));
+        try {
+            blockChain.getBlock(genesis.getHash());
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+        try {
+            blockChain.getTransaction(coinBase.getHash());
+            Assert.fail();
+        }
+        catch (BlockChainException ignored) { }
+    }
+
+    // Double SHA256 of two concatenated hashes, computed without the helper
+    private Hash256 hashPair(Hash256 left, Hash256 right) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(left.getBytes());
+        digest.update(right.getBytes());
+        return Hash256.fromBytes(digest.digest(digest.digest()));
+    }
+
+    private Transaction coinBase(int amount, KeyPair keyPair) {
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        inputs.add(TxInput.coinBaseInput());
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        outputs.add(new TxOutput(amount - 1, helper.pubKeyToHexAddr(keyPair.getPublic())));
+        outputs.add(new TxOutput(1, helper.pubKeyToHexAddr(keyPair.getPublic())));
+        return new Transaction(inputs, outputs);
+    }
+
+    private Transaction spend(Transaction prevTransaction, KeyPair owner, KeyPair receiver, int amount,
+                              String signedMessage) {
+        return spend(prevTransaction, owner, helper.pubKeyToHexAddr(receiver.getPublic()), amount, signedMessage);
+    }
+
+    private Transaction spend(Transaction prevTransaction, KeyPair owner, String receiverAddr, int amount,
+                              String signedMessage) {
+        // Spends every output of the previous transaction
+        ArrayList<TxInput> inputs = new ArrayList<>();
+        for (int i = 0; i < prevTransaction.getOutputs().size(); i++) {
+            TxOutput prevOutput = prevTransaction.getOutputs().get(i);
+            String message = signedMessage == null ? prevOutput.getHash().toString() : signedMessage;
+            inputs.add(new TxInput(prevTransaction.getHash(), i, helper.generateSig(owner.getPrivate(), message),
+                                   owner.getPublic()));
+        }
+        ArrayList<TxOutput> outputs = new ArrayList<>();
+        outputs.add(new TxOutput(amount, receiverAddr));
+        return new Transaction(inputs, outputs);
+    }
 }
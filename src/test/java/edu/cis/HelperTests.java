@@ -1,7 +1,7 @@
 package edu.cis;
 
-import edu.cis.Utils.Helper;
-import edu.cis.Utils.HelperException;
+import edu.cis.Model.TxOutput;
+import edu.cis.Utils.*;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +11,11 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 
 public class HelperTests {
 
@@ -48,6 +53,45 @@ public class HelperTests {
         }
     }
 
+    @Test
+    public void CryptoEngineTest() {
+        CryptoEngine[] engines = {new JcaCryptoEngine(), new BouncyCastleCryptoEngine()};
+        String[] messages = {"Isaac", "LilCoin", "A rather long message for testing", "hi"};
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            Assert.assertArrayEquals(engines[0].sha256(bytes), engines[1].sha256(bytes));
+            Assert.assertArrayEquals(engines[0].sha256d(java.nio.ByteBuffer.wrap(bytes)),
+                                     engines[1].sha256d(java.nio.ByteBuffer.wrap(bytes)));
+            KeyPair keyPair = helper.generateKeyPair();
+            // Signatures made by one engine must verify with the other
+            for (CryptoEngine signer : engines) {
+                byte[] signature = signer.sign(keyPair.getPrivate(), bytes);
+                for (CryptoEngine verifier : engines) {
+                    Assert.assertTrue(verifier.verify(keyPair.getPublic(), bytes, signature));
+                    Assert.assertFalse(verifier.verify(keyPair.getPublic(), "tampered".getBytes(), signature));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void BatchTest() {
+        List<byte[]> inputs = Arrays.asList("Isaac".getBytes(), "LilCoin".getBytes());
+        List<byte[]> hashes = helper.sha256d(inputs);
+        for (int i = 0; i < inputs.size(); i++) {
+            Assert.assertArrayEquals(hashes.get(i), helper.SHA256(helper.SHA256(inputs.get(i))));
+        }
+
+        List<SignatureCheck> checks = new ArrayList<>();
+        for (String message : new String[]{"Isaac", "LilCoin"}) {
+            KeyPair keyPair = helper.generateKeyPair();
+            checks.add(new SignatureCheck(keyPair.getPublic(), message, helper.generateSig(keyPair.getPrivate(), message)));
+        }
+        Assert.assertTrue(helper.verifyAll(checks));
+        checks.add(new SignatureCheck(checks.get(0).getPublicKey(), "hi", checks.get(0).getSignature()));
+        Assert.assertFalse(helper.verifyAll(checks));
+    }
+
     @Test
     public void RIP160Test() {
         String[] inputs = {"Isaac", "LilCoin", "A rather long message for testing", "hi"};
@@ -72,6 +116,35 @@ public class HelperTests {
         Assert.assertEquals(helper.byteToHex(bytes), combinedHex);
     }
 
+    @Test
+    public void GetHashTest() {
+        TxOutput[] outputs = {new TxOutput(50, "8f73ca6b229dc55e2703bec1235916cce2989543"),
+                              new TxOutput(-8000, "92e7f1a9d109f4ca5dc9b6e965cab7c9d35eedbf")};
+        for (TxOutput output : outputs) {
+            byte[] bytes = output.getBytes();
+            Assert.assertEquals(bytes.length, output.getByteSize());
+            Assert.assertEquals(helper.getHash(output).toString(), helper.byteToHex(helper.SHA256(helper.SHA256(bytes))));
+        }
+    }
+
+    @Test
+    public void Hash256Test() {
+        String hex = "63b063f5b637a3e8ced50585a954606c637c30a9211c4dedfd508dedcbd5c060";
+        Hash256 hash = Hash256.fromHex(hex);
+        Assert.assertEquals(hash.toString(), hex);
+        Assert.assertEquals(hash, Hash256.fromBytes(helper.hexToByte(hex)));
+        Assert.assertEquals(hash.hashCode(), Hash256.fromHex(hex).hashCode());
+        Assert.assertNotEquals(hash, Hash256.ZERO);
+        Assert.assertTrue(Hash256.ZERO.compareTo(hash) < 0);
+        Assert.assertArrayEquals(helper.hexToByte(hex), hash.getBytes());
+        Assert.assertEquals((byte) 0x63, hash.getByte(0));
+        Assert.assertEquals((byte) 0x60, hash.getByte(Hash256.SIZE - 1));
+        // Bytes compare as unsigned, so a leading 0xff sorts after 0x63
+        Hash256 high = Hash256.fromHex("ff" + hex.substring(2));
+        Assert.assertTrue(high.compareTo(hash) > 0);
+        Assert.assertNotEquals(high, hash);
+    }
+
     @Test
     public void ECDSATest() {
         String[] messages = {"Isaac", "LilCoin", "A rather long message for testing", "hi"};
@@ -112,6 +185,30 @@ public class HelperTests {
         }
     }
 
+    @Test
+    public void Base58Test() throws HelperException {
+        byte[][] inputs = {{}, {0}, {0, 0, 1}, "hello world".getBytes(StandardCharsets.UTF_8), {-1, -1, -1, -1, -1}};
+        String[] encoded = {"", "1", "112", "StV1DL6CwTryKyV", "VtB5VXc"};
+        for (int i = 0; i < inputs.length; i++) {
+            Assert.assertEquals(Base58.encode(inputs[i]), encoded[i]);
+            Assert.assertArrayEquals(Base58.decode(encoded[i]), inputs[i]);
+        }
+        List<byte[]> payloads = Arrays.asList(helper.hexToByte("008f73ca6b229dc55e2703bec1235916cce2989543"),
+                                              helper.hexToByte("0092e7f1a9d109f4ca5dc9b6e965cab7c9d35eedbf"));
+        List<String> addresses = Base58.encodeCheckedAll(payloads);
+        Assert.assertEquals(addresses, Arrays.asList("1E5WLiCv4PDxn46ausX3asd8Zow4wvGEeg",
+                                                     "1EPmWm1JnciFEoJEuBkyL8CxoVgNWx8p9y"));
+        List<byte[]> decoded = Base58.decodeCheckedAll(addresses);
+        for (int i = 0; i < payloads.size(); i++) {
+            Assert.assertArrayEquals(decoded.get(i), payloads.get(i));
+        }
+        try {
+            Base58.decode("1E5WLiCv4PDxn46ausX3asd8Zow4wvGEe0");
+            Assert.fail();
+        }
+        catch (HelperException ignored) { }
+    }
+
     @Test
     public void HexAddressException() {
         String[] badAddresses = {"1E5WLiCv4PDxn46ausc3asd8Zow4wvGEeg",
@@ -139,4 +236,55 @@ public class HelperTests {
             Assert.assertEquals(new BigInteger(bytes).toString(), testInputs[i]+"");
         }
     }
+
+    @Test
+    public void PersistentHashMapTest() {
+        Random random = new Random(42);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        PersistentHashMap<Integer, Integer> firstHalf = null;
+        for (int i = 0; i < 20000; i++) {
+            Integer key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            }
+            else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+            if (i == 10000) {
+                firstHalf = map;
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 5000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        int[] count = new int[1];
+        map.forEach((key, value) -> {
+            Assert.assertEquals(expected.get(key), value);
+            count[0]++;
+        });
+        Assert.assertEquals(expected.size(), count[0]);
+        // Older versions are not affected by later updates
+        Assert.assertEquals(firstHalf.size(), countEntries(firstHalf));
+        Assert.assertNotEquals(firstHalf.size(), map.size());
+
+        // Keys with equal hash codes
+        PersistentHashMap<String, Integer> collisions = PersistentHashMap.empty();
+        collisions = collisions.put("Aa", 1).put("BB", 2).put("AaAa", 3).put("BBBB", 4);
+        Assert.assertEquals(4, collisions.size());
+        Assert.assertEquals(Integer.valueOf(2), collisions.get("BB"));
+        PersistentHashMap<String, Integer> removed = collisions.remove("Aa").remove("BB");
+        Assert.assertEquals(2, removed.size());
+        Assert.assertNull(removed.get("BB"));
+        Assert.assertEquals(Integer.valueOf(1), collisions.get("Aa"));
+    }
+
+    private int countEntries(PersistentHashMap<Integer, Integer> map) {
+        int[] count = new int[1];
+        map.forEach((key, value) -> count[0]++);
+        return count[0];
+    }
 }